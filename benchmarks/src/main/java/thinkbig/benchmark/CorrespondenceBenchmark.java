@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import thinkbig.util.CorrespondenceValidator;
+import thinkbig.util.Util;
+
+/**
+ * Validates the input/output correspondence of listings of 10k to 1M files, 100 to a daily directory, with
+ * Util.validateInputOutput1_1Correspondence (with the output listing sorted and shuffled) and with the merge join of
+ * sorted listings.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CorrespondenceBenchmark
+{
+	@Param({ "10000", "1000000" })
+	public int files;
+
+	@Param({ "sorted", "shuffled" })
+	public String order;
+
+	private List<String> inputs;
+	private List<String> outputs;
+	private List<String> orderedOutputs;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		inputs = listing("input", "tfidf", files);
+		outputs = listing("output", "part-", files);
+		orderedOutputs = new ArrayList<String>(outputs);
+		if (order.equals("shuffled")) {
+			Collections.shuffle(orderedOutputs, new Random(42));
+		}
+	}
+
+	static List<String> listing(String top, String name, int n) {
+		List<String> files = new ArrayList<String>(n);
+		for (int i = 0; i < n; i++) {
+			int day = i / 100;
+			files.add(String.format("%s/%04d/%02d/%02d/%s%05d", top, 2000 + day / 366, day / 31 % 12 + 1,
+					day % 31 + 1, name, i % 100));
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	@Benchmark
+	public boolean validate() {
+		return Util.validateInputOutput1_1Correspondence("input", "output", inputs, orderedOutputs);
+	}
+
+	@Benchmark
+	public boolean validateSorted() {
+		return new CorrespondenceValidator("input", "output").validateSorted(inputs.iterator(), outputs.iterator())
+			.isValid();
+	}
+}
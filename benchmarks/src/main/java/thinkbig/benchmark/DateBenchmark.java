@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.benchmark;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import thinkbig.util.DatePartitionPlanner;
+import thinkbig.util.Util;
+
+/**
+ * The date helpers of Util, and the partition planner over a year of daily partitions. Run with -t 4 (or more) to see
+ * whether they scale across threads.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DateBenchmark
+{
+	private Date date;
+	private Date start;
+	private Date end;
+	private DatePartitionPlanner planner;
+
+	@Setup
+	public void setup() throws ParseException {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+		date = format.parse("2011-08-15");
+		start = format.parse("2011-01-01");
+		end = format.parse("2011-12-31");
+		planner = new DatePartitionPlanner("input/{yyyy/MM/dd}/");
+	}
+
+	@Benchmark
+	public String addDays() {
+		return Util.addDays("2008-02-28", -29, "yyyy-MM-dd", "MM/yy/dd");
+	}
+
+	@Benchmark
+	public String convertDate() throws ParseException {
+		return Util.convertDate("2011/08/01", "yyyy/MM/dd", "yyyy-MM-dd");
+	}
+
+	@Benchmark
+	public boolean isDateWithinDates() {
+		return Util.isDateWithinDates(date, start, end);
+	}
+
+	@Benchmark
+	public List<String> partitionsOfAYear() {
+		return planner.getPartitions(start, end);
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.openjdk.jmh.annotations.*;
+
+import thinkbig.hadoop.inputformat.DocumentInputFormat;
+
+/**
+ * Reads a whole document from the local file system with DocumentInputFormat's FullDocRecordReader, across document
+ * sizes (1KB to 1GB uncompressed) and codecs. Narrow the run with e.g. -p size=1048576 -p codec=gzip; the 1GB
+ * documents take a while to generate, bzip2 especially.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DocumentReaderBenchmark
+{
+	@Param({ "1024", "1048576", "67108864", "1073741824" })
+	public long size;
+
+	@Param({ "none", "gzip", "bzip2", "deflate" })
+	public String codec;
+
+	private File dir;
+	private JobConf job;
+	private DocumentInputFormat format;
+	private FileSplit split;
+	private final Text key = new Text();
+	private final Text value = new Text();
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		job = new JobConf();
+		dir = File.createTempFile("documents", "");
+		dir.delete();
+		dir.mkdirs();
+		CompressionCodec compression = null;
+		if (codec.equals("gzip")) {
+			compression = ReflectionUtils.newInstance(GzipCodec.class, job);
+		} else if (codec.equals("bzip2")) {
+			compression = ReflectionUtils.newInstance(BZip2Codec.class, job);
+		} else if (codec.equals("deflate")) {
+			compression = ReflectionUtils.newInstance(DefaultCodec.class, job);
+		} else if (!codec.equals("none")) {
+			throw new IllegalArgumentException("Unknown codec " + codec);
+		}
+		File file = new File(dir, "document" + (compression == null ? "" : compression.getDefaultExtension()));
+		OutputStream out = new FileOutputStream(file);
+		if (compression != null) {
+			out = compression.createOutputStream(out);
+		}
+		try {
+			writeText(out, size);
+		} finally {
+			out.close();
+		}
+		format = new DocumentInputFormat();
+		format.configure(job);
+		split = new FileSplit(new Path(file.toURI().toString()), 0, file.length(), new String[0]);
+	}
+
+	// word-like text, so that the codecs see realistic compression ratios
+	static void writeText(OutputStream out, long size) throws IOException {
+		String[] words = new String[1000];
+		Random random = new Random(42);
+		for (int i = 0; i < words.length; i++) {
+			char[] word = new char[2 + random.nextInt(9)];
+			for (int j = 0; j < word.length; j++) {
+				word[j] = (char) ('a' + random.nextInt(26));
+			}
+			words[i] = new String(word);
+		}
+		byte[] block = new byte[64 * 1024];
+		long written = 0;
+		int n = 0;
+		while (written < size) {
+			byte[] word = words[random.nextInt(words.length)].getBytes("UTF-8");
+			for (int i = 0; i <= word.length && written < size; i++) {
+				block[n++] = i < word.length ? word[i] : (byte) (random.nextInt(12) == 0 ? '\n' : ' ');
+				written++;
+				if (n == block.length) {
+					out.write(block, 0, n);
+					n = 0;
+				}
+			}
+		}
+		out.write(block, 0, n);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	public int readDocument() throws IOException {
+		RecordReader<Text, Text> reader = format.getRecordReader(split, job, Reporter.NULL);
+		try {
+			reader.next(key, value);
+			return value.getLength();
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import thinkbig.util.Util;
+
+/**
+ * Enumerates synthetic local directory trees of 10k to 1M files with Util.getAllFiles, serially and with parallel
+ * listing. Trees are laid out as dNN/dNN/fNN, 100 files to a directory.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ListingBenchmark
+{
+	private static final int FILES_PER_DIRECTORY = 100;
+
+	@Param({ "10000", "100000", "1000000" })
+	public int files;
+
+	@Param({ "1", "10" })
+	public int threads;
+
+	private File root;
+	private FileSystem fs;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		fs = FileSystem.getLocal(new Configuration());
+		root = File.createTempFile("tree", "");
+		root.delete();
+		int directories = (files + FILES_PER_DIRECTORY - 1) / FILES_PER_DIRECTORY;
+		for (int d = 0; d < directories; d++) {
+			File dir = new File(root, "d" + d / FILES_PER_DIRECTORY + "/d" + d % FILES_PER_DIRECTORY);
+			dir.mkdirs();
+			for (int f = 0; f < FILES_PER_DIRECTORY && d * FILES_PER_DIRECTORY + f < files; f++) {
+				new File(dir, "f" + f).createNewFile();
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		delete(root);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Benchmark
+	public int getAllFiles() throws IOException {
+		List<String> found = new ArrayList<String>();
+		Util.getAllFiles(fs, root.toURI().toString(), found, threads);
+		return found.size();
+	}
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streams through the file entries of a zip or tar archive, in one pass and without extracting them. Directories and
+ * other non-file entries are skipped. A tar archive may be compressed with any codec Hadoop knows (it is then
+ * decompressed before it gets here), and .tgz files are gunzipped here.
+ */
+abstract class ArchiveEntries implements Closeable {
+    protected String name;
+    protected long size;
+
+    /**
+     * @param fileName name of the archive file
+     * @param in the archive's (decompressed) contents
+     * @param decompressed true if a codec already decompressed the file
+     * @return the entries, or null if the file isn't an archive
+     * @throws IOException
+     */
+    static ArchiveEntries open(String fileName, InputStream in, boolean decompressed) throws IOException {
+        String lower = fileName.toLowerCase();
+        if (!decompressed && lower.endsWith(".zip")) {
+            return new Zip(in);
+        }
+        if (!decompressed && lower.endsWith(".tgz")) {
+            return new Tar(new GZIPInputStream(in));
+        }
+        if (decompressed ? lower.matches(".*\\.tar\\.[^./]+") : lower.endsWith(".tar")) {
+            return new Tar(in);
+        }
+        return null;
+    }
+
+    /**
+     * Advance to the next file entry
+     * @return false at the end of the archive
+     * @throws IOException
+     */
+    abstract boolean next() throws IOException;
+
+    /**
+     * @return the contents of the current entry, ending at the end of the entry
+     */
+    abstract InputStream getStream();
+
+    /**
+     * @return the name of the current entry, as stored in the archive
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the size of the current entry, or -1 if not known until it is read
+     */
+    long getSize() {
+        return size;
+    }
+
+    private static class Zip extends ArchiveEntries {
+        private final ZipInputStream in;
+
+        Zip(InputStream in) {
+            this.in = new ZipInputStream(in);
+        }
+
+        @Override
+        boolean next() throws IOException {
+            ZipEntry entry;
+            do {
+                entry = in.getNextEntry();
+                if (entry == null) {
+                    return false;
+                }
+            } while (entry.isDirectory());
+            name = entry.getName();
+            size = entry.getSize();
+            return true;
+        }
+
+        @Override
+        InputStream getStream() {
+            return in;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * ustar archives, with the GNU long name and pax path/size extensions
+     */
+    private static class Tar extends ArchiveEntries {
+        private static final int BLOCK = 512;
+        private final InputStream in;
+        private final byte[] header = new byte[BLOCK];
+        // bytes of the current entry not yet read, and its padding to the next block
+        private long remaining = 0;
+        private long padding = 0;
+
+        private final InputStream entry = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining == 0) {
+                    return len == 0 ? 0 : -1;
+                }
+                int n = in.read(b, off, (int) Math.min(len, remaining));
+                if (n == -1) {
+                    throw new EOFException("Truncated tar entry " + name);
+                }
+                remaining -= n;
+                return n;
+            }
+        };
+
+        Tar(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        boolean next() throws IOException {
+            String longName = null;
+            long paxSize = -1;
+            for (;;) {
+                skip(remaining + padding);
+                remaining = padding = 0;
+                if (!readHeader()) {
+                    return false;
+                }
+                long entrySize = number(124, 12);
+                byte type = header[156];
+                if (type == 'L' || type == 'x') {
+                    // the entry's data extends the header of the next entry
+                    byte[] data = read(entrySize);
+                    if (type == 'L') {
+                        longName = string(data, 0, data.length);
+                    } else {
+                        String path = pax(data, "path");
+                        longName = path != null ? path : longName;
+                        String value = pax(data, "size");
+                        paxSize = value != null ? Long.parseLong(value) : paxSize;
+                    }
+                    continue;
+                }
+                remaining = paxSize >= 0 ? paxSize : entrySize;
+                padding = (BLOCK - remaining % BLOCK) % BLOCK;
+                if (type != '0' && type != 0 && type != '7') {
+                    // directories, links, devices and global headers hold no document
+                    longName = null;
+                    paxSize = -1;
+                    continue;
+                }
+                if (longName != null) {
+                    name = longName;
+                } else {
+                    name = string(header, 0, 100);
+                    if (string(header, 257, 5).equals("ustar")) {
+                        String prefix = string(header, 345, 155);
+                        name = prefix.isEmpty() ? name : prefix + "/" + name;
+                    }
+                }
+                size = remaining;
+                return true;
+            }
+        }
+
+        @Override
+        InputStream getStream() {
+            return entry;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private boolean readHeader() throws IOException {
+            int off = 0;
+            while (off < BLOCK) {
+                int n = in.read(header, off, BLOCK - off);
+                if (n == -1) {
+                    if (off == 0) {
+                        return false;
+                    }
+                    throw new EOFException("Truncated tar header");
+                }
+                off += n;
+            }
+            // the archive ends with zero blocks
+            for (byte b : header) {
+                if (b != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private byte[] read(long length) throws IOException {
+            if (length > DocumentBuffer.MAX_ARRAY_SIZE) {
+                throw new IOException("Tar extended header of " + length + " bytes");
+            }
+            byte[] data = new byte[(int) length];
+            new DataInputStream(in).readFully(data);
+            skip((BLOCK - length % BLOCK) % BLOCK);
+            return data;
+        }
+
+        private void skip(long n) throws IOException {
+            while (n > 0) {
+                long skipped = in.skip(n);
+                if (skipped <= 0) {
+                    if (in.read() == -1) {
+                        throw new EOFException("Truncated tar entry " + name);
+                    }
+                    skipped = 1;
+                }
+                n -= skipped;
+            }
+        }
+
+        // octal, or big-endian binary when the top bit of the first byte is set
+        private long number(int off, int len) throws IOException {
+            long value = 0;
+            if ((header[off] & 0x80) != 0) {
+                value = header[off] & 0x7f;
+                for (int i = 1; i < len; i++) {
+                    value = (value << 8) | (header[off + i] & 0xff);
+                }
+                return value;
+            }
+            String octal = string(header, off, len).trim();
+            try {
+                return octal.isEmpty() ? 0 : Long.parseLong(octal, 8);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid tar header number '" + octal + "'");
+            }
+        }
+
+        private static String string(byte[] bytes, int off, int len) throws UnsupportedEncodingException {
+            int end = off;
+            while (end < off + len && bytes[end] != 0) {
+                end++;
+            }
+            return new String(bytes, off, end - off, "UTF-8");
+        }
+
+        // pax records are "<length> <key>=<value>\n"
+        private static String pax(byte[] data, String key) throws IOException {
+            int off = 0;
+            while (off < data.length) {
+                int space = off;
+                while (space < data.length && data[space] != ' ') {
+                    space++;
+                }
+                int length;
+                try {
+                    length = Integer.parseInt(new String(data, off, space - off, "UTF-8"));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                if (length <= 0 || off + length > data.length) {
+                    return null;
+                }
+                String record = new String(data, space + 1, off + length - space - 2, "UTF-8");
+                if (record.startsWith(key + "=")) {
+                    return record.substring(key.length() + 1);
+                }
+                off += length;
+            }
+            return null;
+        }
+    }
+}
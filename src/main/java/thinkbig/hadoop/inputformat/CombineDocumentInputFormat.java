@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.*;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
+
+/**
+ * A variant of DocumentInputFormat that packs many whole documents into each split, so that corpora of small files
+ * don't need one map task per file. Each record is still a single document, keyed by its path, and
+ * docinput.prepend.key is honoured as for DocumentInputFormat. The read buffer is shared by all documents of a split.
+ *
+ * Files are packed node-local first, then rack-local, and whatever is left over is packed without regard to locality.
+ * A split is closed once it reaches docinput.combine.max.split.size bytes or docinput.combine.max.files files. Leftovers
+ * on a node (or rack) smaller than docinput.combine.min.split.size.node (or .rack) are passed on to the next level
+ * rather than becoming a small split of their own.
+ *
+ */
+@SuppressWarnings("deprecation")
+public class CombineDocumentInputFormat extends DocumentInputFormat {
+    public static final String MAX_SPLIT_SIZE = "docinput.combine.max.split.size";
+    public static final String MAX_FILES = "docinput.combine.max.files";
+    public static final String MIN_SPLIT_SIZE_NODE = "docinput.combine.min.split.size.node";
+    public static final String MIN_SPLIT_SIZE_RACK = "docinput.combine.min.split.size.rack";
+
+    public static final long DEFAULT_MAX_SPLIT_SIZE = 256L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 10000;
+
+    private static final Log LOG = LogFactory.getLog(CombineDocumentInputFormat.class);
+
+    @Override
+    public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+        long start = System.currentTimeMillis();
+        FileStatus[] files = listStatus(job);
+        for (FileStatus status : files) {
+            if (status.isDir()) {
+                throw new IOException("Not a file: " + status.getPath());
+            }
+        }
+        BlockLocation[][] locations = SplitPlanner.locate(job, files, job.getInt(SPLIT_THREADS, 1));
+        writePending(job, files);
+        InputSplit[] splits = combine(job, files, locations);
+        String criticalPath = DocumentSplits.describeCriticalPath(splits);
+        LOG.info("Planned " + splits.length + " splits of " + files.length + " documents in "
+                + (System.currentTimeMillis() - start) + " ms; " + criticalPath);
+        return splits;
+    }
+
+    /**
+     * Pack files into splits node-local first, then rack-local, then regardless of locality
+     * @param job
+     * @param files
+     * @param locations the block locations of each file
+     * @return the splits, in the order they were packed
+     * @throws IOException
+     */
+    static InputSplit[] combine(JobConf job, FileStatus[] files, BlockLocation[][] locations) throws IOException {
+        long maxSize = job.getLong(MAX_SPLIT_SIZE, DEFAULT_MAX_SPLIT_SIZE);
+        int maxFiles = job.getInt(MAX_FILES, DEFAULT_MAX_FILES);
+        long minSizeNode = job.getLong(MIN_SPLIT_SIZE_NODE, 0);
+        long minSizeRack = job.getLong(MIN_SPLIT_SIZE_RACK, 0);
+        if (maxSize <= 0 || maxFiles <= 0) {
+            throw new IOException(MAX_SPLIT_SIZE + " and " + MAX_FILES + " must be positive");
+        }
+        if (minSizeNode > maxSize || minSizeRack > maxSize) {
+            throw new IOException("Minimum split sizes per node and rack can't exceed " + MAX_SPLIT_SIZE);
+        }
+
+        // index every document by the nodes holding most of its bytes, and the racks holding any
+        Map<String, List<Doc>> docsByNode = new LinkedHashMap<String, List<Doc>>();
+        Map<String, List<Doc>> docsByRack = new LinkedHashMap<String, List<Doc>>();
+        Map<String, Set<String>> hostsByRack = new HashMap<String, Set<String>>();
+        List<Doc> docs = new ArrayList<Doc>();
+        for (int i = 0; i < files.length; i++) {
+            BlockLocation[] blocks = locations[i];
+            Doc doc = new Doc(files[i].getPath(), files[i].getLen(), DocumentSplits.rankHosts(blocks,
+                    files[i].getReplication()));
+            docs.add(doc);
+            for (String host : doc.hosts) {
+                addTo(docsByNode, host, doc);
+            }
+            Set<String> docRacks = new HashSet<String>();
+            for (Map.Entry<String, String> entry : DocumentSplits.racksByHost(blocks).entrySet()) {
+                String rack = entry.getValue();
+                if (docRacks.add(rack)) {
+                    addTo(docsByRack, rack, doc);
+                }
+                Set<String> rackHosts = hostsByRack.get(rack);
+                if (rackHosts == null) {
+                    rackHosts = new LinkedHashSet<String>();
+                    hostsByRack.put(rack, rackHosts);
+                }
+                rackHosts.add(entry.getKey());
+            }
+        }
+
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+        for (Map.Entry<String, List<Doc>> entry : docsByNode.entrySet()) {
+            pack(job, entry.getValue(), new String[] { entry.getKey() }, maxSize, maxFiles, minSizeNode, splits);
+        }
+        for (Map.Entry<String, List<Doc>> entry : docsByRack.entrySet()) {
+            Set<String> rackHosts = hostsByRack.get(entry.getKey());
+            pack(job, entry.getValue(), rackHosts.toArray(new String[rackHosts.size()]), maxSize, maxFiles, minSizeRack,
+                    splits);
+        }
+        pack(job, docs, new String[0], maxSize, maxFiles, 0, splits);
+        return splits.toArray(new InputSplit[splits.size()]);
+    }
+
+    private static void addTo(Map<String, List<Doc>> index, String location, Doc doc) {
+        List<Doc> docs = index.get(location);
+        if (docs == null) {
+            docs = new ArrayList<Doc>();
+            index.put(location, docs);
+        }
+        docs.add(doc);
+    }
+
+    /**
+     * Pack the not yet assigned documents into splits at the given locations. Full splits are always emitted; the
+     * final partial split is only emitted if it reaches minSize, otherwise its documents are released for the next
+     * level.
+     */
+    private static void pack(JobConf job, List<Doc> candidates, String[] locations, long maxSize, int maxFiles,
+            long minSize, List<InputSplit> splits) {
+        List<Doc> current = new ArrayList<Doc>();
+        long currentSize = 0;
+        for (Doc doc : candidates) {
+            if (doc.assigned) {
+                continue;
+            }
+            if (!current.isEmpty() && (current.size() >= maxFiles || currentSize + doc.length > maxSize)) {
+                splits.add(makeSplit(job, current, locations));
+                current.clear();
+                currentSize = 0;
+            }
+            doc.assigned = true;
+            current.add(doc);
+            currentSize += doc.length;
+        }
+        if (!current.isEmpty()) {
+            if (currentSize >= minSize) {
+                splits.add(makeSplit(job, current, locations));
+            } else {
+                for (Doc doc : current) {
+                    doc.assigned = false;
+                }
+            }
+        }
+    }
+
+    private static CombineFileSplit makeSplit(JobConf job, List<Doc> docs, String[] locations) {
+        Path[] paths = new Path[docs.size()];
+        long[] starts = new long[docs.size()];
+        long[] lengths = new long[docs.size()];
+        for (int i = 0; i < paths.length; i++) {
+            Doc doc = docs.get(i);
+            paths[i] = doc.path;
+            lengths[i] = doc.length;
+        }
+        if (locations.length == 0) {
+            // no common location, so suggest where the first document lives
+            locations = docs.get(0).hosts;
+        }
+        return new CombineFileSplit(job, paths, starts, lengths, locations);
+    }
+
+    private static class Doc {
+        final Path path;
+        final long length;
+        final String[] hosts;
+        boolean assigned = false;
+
+        Doc(Path path, long length, String[] hosts) {
+            this.path = path;
+            this.length = length;
+            this.hosts = hosts;
+        }
+    }
+
+    @Override
+    public RecordReader<Text, Text> getRecordReader(InputSplit split, JobConf job, Reporter reporter) {
+        if (split instanceof CombineFileSplit) {
+            return new CombineDocRecordReader((CombineFileSplit) split, job, reporter);
+        }
+        return super.getRecordReader(split, job, reporter);
+    }
+
+    /**
+     * Reads the documents of a CombineFileSplit one after another, opening each only once the previous one is done. The
+     * documents share one buffer and one pool of range reading threads.
+     */
+    public class CombineDocRecordReader implements RecordReader<Text, Text> {
+        private final CombineFileSplit split;
+        private final JobConf job;
+        private final Reporter reporter;
+        private final DocumentBuffer buffer = new DocumentBuffer();
+        private final RangeReads rangeReads = newRangeReads();
+        private FullDocRecordReader current = null;
+        private int index = 0;
+        private long bytesDone = 0;
+
+        public CombineDocRecordReader(CombineFileSplit split, JobConf job) {
+            this(split, job, Reporter.NULL);
+        }
+
+        public CombineDocRecordReader(CombineFileSplit split, JobConf job, Reporter reporter) {
+            this.split = split;
+            this.job = job;
+            this.reporter = reporter;
+        }
+
+        @Override
+        public boolean next(Text key, Text value) throws IOException {
+            while (index < split.getNumPaths()) {
+                if (current == null) {
+                    FileSplit fileSplit = new FileSplit(split.getPath(index), split.getOffset(index),
+                            split.getLength(index), new String[0]);
+                    current = new FullDocRecordReader(fileSplit, job, buffer, rangeReads, reporter);
+                }
+                if (current.next(key, value)) {
+                    return true;
+                }
+                current.close();
+                current = null;
+                bytesDone += split.getLength(index);
+                index++;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+            } finally {
+                rangeReads.close();
+            }
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            long total = split.getLength();
+            if (total == 0) {
+                return split.getNumPaths() == 0 ? 1f : (float) index / split.getNumPaths();
+            }
+            return Math.min(1f, (float) bytesDone / total);
+        }
+
+        @Override
+        public Text createKey() {
+            return new Text();
+        }
+
+        @Override
+        public Text createValue() {
+            return new Text();
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return bytesDone;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Random access to single documents of a document archive directory written by DocumentCompactor. Opening the archive
+ * loads the indexes of all its files; a lookup then seeks straight to the compressed block holding the document and
+ * decompresses only that block.
+ *
+ * Archive files are opened on first use and kept open until the archive is closed. Not thread safe.
+ *
+ */
+public class DocumentArchive implements Closeable {
+    // part number in the top bits, block offset in the low OFFSET_BITS bits
+    private static final int OFFSET_BITS = 40;
+
+    private final FileSystem fs;
+    private final Configuration conf;
+    private final List<Path> parts = new ArrayList<Path>();
+    private final Map<String, Long> locations = new HashMap<String, Long>();
+    private final Map<Integer, SequenceFile.Reader> readers = new HashMap<Integer, SequenceFile.Reader>();
+    private final Text key = new Text();
+
+    /**
+     * @param dir the compaction job's output directory
+     * @param conf
+     * @throws IOException
+     */
+    public DocumentArchive(Path dir, Configuration conf) throws IOException {
+        this.conf = conf;
+        fs = dir.getFileSystem(conf);
+        FileStatus[] indexes = fs.listStatus(new Path(dir, DocumentArchiveOutputFormat.INDEX_DIR));
+        if (indexes == null) {
+            throw new IOException("No document archive index in " + dir);
+        }
+        Arrays.sort(indexes);
+        LongWritable offset = new LongWritable();
+        for (FileStatus index : indexes) {
+            long part = parts.size();
+            parts.add(new Path(dir, index.getPath().getName()));
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs, index.getPath(), conf);
+            try {
+                while (reader.next(key, offset)) {
+                    locations.put(key.toString(), part << OFFSET_BITS | offset.get());
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * @return number of documents in the archive
+     */
+    public int size() {
+        return locations.size();
+    }
+
+    /**
+     * @param path original path of a document
+     * @return true if the document is in the archive
+     */
+    public boolean contains(String path) {
+        return locations.containsKey(path);
+    }
+
+    /**
+     * read a single document
+     * @param path original path of the document, as emitted by DocumentInputFormat
+     * @param value set to the document's contents
+     * @return false if the document isn't in the archive
+     * @throws IOException
+     */
+    public boolean get(String path, Text value) throws IOException {
+        Long location = locations.get(path);
+        if (location == null) {
+            return false;
+        }
+        int part = (int) (location >>> OFFSET_BITS);
+        SequenceFile.Reader reader = readers.get(part);
+        if (reader == null) {
+            reader = new SequenceFile.Reader(fs, parts.get(part), conf);
+            readers.put(part, reader);
+        }
+        // the offset is that of the sync marker starting the document's block
+        reader.sync(location & ((1L << OFFSET_BITS) - 1));
+        boolean first = true;
+        while (reader.next(key, value)) {
+            if (!first && reader.syncSeen()) {
+                break;
+            }
+            if (key.toString().equals(path)) {
+                return true;
+            }
+            first = false;
+        }
+        throw new IOException("Document archive index is inconsistent with " + parts.get(part) + " for " + path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (SequenceFile.Reader reader : readers.values()) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        readers.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.*;
+
+/**
+ * Reads the document archives written by DocumentCompactor (see DocumentArchiveOutputFormat) and emits the same
+ * records DocumentInputFormat emits for the original documents: the original path as key and the document as value,
+ * with docinput.prepend.key honoured. Archives are split like any SequenceFile, at their sync markers.
+ *
+ */
+@SuppressWarnings("deprecation")
+public class DocumentArchiveInputFormat extends SequenceFileInputFormat<Text, Text> implements JobConfigurable {
+    private String prependKey = null;
+
+    @Override
+    public void configure(JobConf conf) {
+        prependKey = conf.get("docinput.prepend.key");
+    }
+
+    @Override
+    public RecordReader<Text, Text> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
+            throws IOException {
+        RecordReader<Text, Text> reader = super.getRecordReader(split, job, reporter);
+        if (prependKey == null || prependKey.isEmpty()) {
+            return reader;
+        }
+        return new PrependingRecordReader(reader, prependKey.getBytes());
+    }
+
+    /**
+     * Prepends the key and docinput.prepend.key to each document, as DocumentInputFormat does
+     */
+    private static class PrependingRecordReader implements RecordReader<Text, Text> {
+        private final RecordReader<Text, Text> reader;
+        private final byte[] separator;
+        private final Text document = new Text();
+        private final DocumentBuffer buffer = new DocumentBuffer();
+
+        PrependingRecordReader(RecordReader<Text, Text> reader, byte[] separator) {
+            this.reader = reader;
+            this.separator = separator;
+        }
+
+        @Override
+        public boolean next(Text key, Text value) throws IOException {
+            if (!reader.next(key, document)) {
+                return false;
+            }
+            buffer.reset();
+            buffer.append(key.getBytes(), 0, key.getLength());
+            buffer.append(separator);
+            buffer.append(document.getBytes(), 0, document.getLength());
+            value.set(buffer.getBytes(), 0, buffer.getLength());
+            return true;
+        }
+
+        @Override
+        public Text createKey() {
+            return reader.createKey();
+        }
+
+        @Override
+        public Text createValue() {
+            return reader.createValue();
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return reader.getPos();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return reader.getProgress();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapred.*;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Writes (path, contents) document records into document archives: block-compressed SequenceFiles, compressed with
+ * the job's output codec (DefaultCodec unless set), each with a sidecar index in _index/ of the same name mapping every
+ * path to the offset of the compressed block holding it. The index is what DocumentArchive uses for random lookups;
+ * being under a hidden directory, it is skipped when the archive is read as job input.
+ *
+ */
+@SuppressWarnings("deprecation")
+public class DocumentArchiveOutputFormat extends FileOutputFormat<Text, Text> {
+    public static final String INDEX_DIR = "_index";
+
+    @Override
+    public RecordWriter<Text, Text> getRecordWriter(FileSystem ignored, JobConf job, String name,
+            Progressable progress) throws IOException {
+        Path file = FileOutputFormat.getTaskOutputPath(job, name);
+        Path index = new Path(new Path(file.getParent(), INDEX_DIR), name);
+        FileSystem fs = file.getFileSystem(job);
+        CompressionCodec codec = ReflectionUtils.newInstance(getOutputCompressorClass(job, DefaultCodec.class), job);
+        final SequenceFile.Writer out = SequenceFile.createWriter(fs, job, file, Text.class, Text.class,
+                CompressionType.BLOCK, codec, progress);
+        final SequenceFile.Writer indexOut;
+        try {
+            indexOut = SequenceFile.createWriter(fs, job, index, Text.class, LongWritable.class,
+                    CompressionType.BLOCK, codec, progress);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return new RecordWriter<Text, Text>() {
+            private final LongWritable offset = new LongWritable();
+
+            @Override
+            public void write(Text path, Text contents) throws IOException {
+                // records are buffered until their block is full, and the block is then written (after a sync
+                // marker) where the file currently ends
+                offset.set(out.getLength());
+                out.append(path, contents);
+                indexOut.append(path, offset);
+            }
+
+            @Override
+            public void close(Reporter reporter) throws IOException {
+                try {
+                    out.close();
+                } finally {
+                    indexOut.close();
+                }
+            }
+        };
+    }
+}
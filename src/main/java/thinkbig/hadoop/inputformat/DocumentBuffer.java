@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A reusable, growable byte buffer that whole documents are read into. The buffer is kept between records (and
+ * between files when readers share it), so reading a document of a size seen before allocates nothing.
+ */
+final class DocumentBuffer {
+    // largest array the JVM reliably hands out
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private byte[] bytes = new byte[0];
+    private int length = 0;
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    void append(byte[] data) {
+        append(data, 0, data.length);
+    }
+
+    void append(byte[] data, int offset, int len) {
+        long needed = (long) length + len;
+        if (needed > bytes.length) {
+            grow(Math.max(needed, Math.min((long) bytes.length * 2, MAX_ARRAY_SIZE)));
+        }
+        System.arraycopy(data, offset, bytes, length, len);
+        length += len;
+    }
+
+    /**
+     * Extend the buffer by len bytes, to be filled in by the caller
+     *
+     * @return the offset of the new bytes
+     */
+    int extend(long len) {
+        long needed = length + len;
+        if (needed > bytes.length) {
+            grow(needed);
+        }
+        int offset = length;
+        length = (int) needed;
+        return offset;
+    }
+
+    /**
+     * Read the stream to its end, appending to the buffer. The buffer is sized up front for expectedSize more bytes
+     * and grown by doubling if the estimate was short.
+     *
+     * @return false if the buffer would hold more than maxSize bytes, in which case the stream is left partly read
+     */
+    boolean readFully(InputStream in, long expectedSize, long maxSize) throws IOException {
+        // one byte past the maximum, so that an oversized document is detected without reading all of it
+        long limit = maxSize >= MAX_ARRAY_SIZE ? MAX_ARRAY_SIZE : maxSize + 1;
+        // one spare byte so that hitting EOF on an exact estimate doesn't force a resize
+        long wanted = Math.min(length + Math.max(expectedSize, 0) + 1, limit);
+        if (wanted > bytes.length) {
+            grow(wanted);
+        }
+        for (;;) {
+            if (length == bytes.length) {
+                if (bytes.length >= limit) {
+                    return false;
+                }
+                grow(Math.min(Math.max((long) bytes.length * 2, 4096), limit));
+            }
+            int len = in.read(bytes, length, bytes.length - length);
+            if (len == -1)
+                break; // EOF
+            length += len;
+        }
+        return length <= maxSize;
+    }
+
+    /**
+     * Append at most maxBytes bytes from the stream, stopping early at its end
+     *
+     * @return the number of bytes appended
+     */
+    int readUpTo(InputStream in, int maxBytes) throws IOException {
+        if ((long) length + maxBytes > bytes.length) {
+            grow((long) length + maxBytes);
+        }
+        int read = 0;
+        while (read < maxBytes) {
+            int len = in.read(bytes, length, maxBytes - read);
+            if (len == -1)
+                break; // EOF
+            length += len;
+            read += len;
+        }
+        return read;
+    }
+
+    private void grow(long capacity) {
+        if (capacity > MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Can't buffer more than " + MAX_ARRAY_SIZE + " bytes");
+        }
+        byte[] grown = new byte[(int) capacity];
+        System.arraycopy(bytes, 0, grown, 0, length);
+        bytes = grown;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * The key of a chunk record when DocumentInputFormat runs in chunked mode. It is carried as tab separated text,
+ * path, chunk index, byte offset of the chunk in the (uncompressed) document and whether it is the last chunk, so it
+ * stays readable by Hive and streaming jobs; use parse to get the fields back in Java.
+ *
+ */
+public final class DocumentChunkKey {
+    public static final char SEPARATOR = '\t';
+
+    private final String path;
+    private final int index;
+    private final long offset;
+    private final boolean last;
+
+    public DocumentChunkKey(String path, int index, long offset, boolean last) {
+        this.path = path;
+        this.index = index;
+        this.offset = offset;
+        this.last = last;
+    }
+
+    /**
+     * Parse a key emitted in chunked mode. The path is everything before the last three fields, so paths containing
+     * tabs survive.
+     */
+    public static DocumentChunkKey parse(Text key) {
+        String s = key.toString();
+        int lastSep = s.lastIndexOf(SEPARATOR);
+        int offsetSep = lastSep < 0 ? -1 : s.lastIndexOf(SEPARATOR, lastSep - 1);
+        int indexSep = offsetSep < 0 ? -1 : s.lastIndexOf(SEPARATOR, offsetSep - 1);
+        if (indexSep < 0) {
+            throw new IllegalArgumentException("Not a document chunk key: " + s);
+        }
+        return new DocumentChunkKey(s.substring(0, indexSep), Integer.parseInt(s.substring(indexSep + 1, offsetSep)),
+                Long.parseLong(s.substring(offsetSep + 1, lastSep)), Boolean.parseBoolean(s.substring(lastSep + 1)));
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return path + SEPARATOR + index + SEPARATOR + offset + SEPARATOR + last;
+    }
+}
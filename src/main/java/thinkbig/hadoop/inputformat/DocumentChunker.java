@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Cuts a document stream into chunks of at most chunkSize bytes, using a single array of chunkSize + 1 bytes whatever
+ * the size of the document. If a delimiter is given, a chunk ends just after the last delimiter that fits in it, so
+ * chunks don't split delimited records; a chunk with no delimiter in it is cut at chunkSize.
+ */
+final class DocumentChunker {
+    private final int chunkSize;
+    private final byte[] delimiter;
+    // one byte more than a chunk, so that a full chunk tells us whether more data follows
+    private final byte[] bytes;
+    private int filled = 0;
+    private int length = 0;
+    private int index = -1;
+    private long offset = 0;
+    private boolean last = false;
+
+    DocumentChunker(int chunkSize, byte[] delimiter) {
+        if (chunkSize <= 0 || chunkSize >= DocumentBuffer.MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.delimiter = delimiter == null || delimiter.length == 0 || delimiter.length > chunkSize ? null : delimiter;
+        this.bytes = new byte[chunkSize + 1];
+    }
+
+    /**
+     * Advance to the next chunk of the stream. An empty document yields a single empty chunk.
+     *
+     * @return false once the last chunk has been returned
+     */
+    boolean next(InputStream in) throws IOException {
+        if (last) {
+            return false;
+        }
+        // carry over what followed the previous chunk
+        offset += length;
+        filled -= length;
+        System.arraycopy(bytes, length, bytes, 0, filled);
+        index++;
+
+        while (filled < bytes.length) {
+            int len = in.read(bytes, filled, bytes.length - filled);
+            if (len == -1)
+                break; // EOF
+            filled += len;
+        }
+        if (filled <= chunkSize) {
+            length = filled;
+            last = true;
+        } else {
+            length = cut();
+        }
+        return true;
+    }
+
+    private int cut() {
+        if (delimiter != null) {
+            for (int i = chunkSize - delimiter.length; i >= 0; i--) {
+                int j = 0;
+                while (j < delimiter.length && bytes[i + j] == delimiter[j]) {
+                    j++;
+                }
+                if (j == delimiter.length) {
+                    return i + delimiter.length;
+                }
+            }
+        }
+        return chunkSize;
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    boolean isLast() {
+        return last;
+    }
+
+    /**
+     * Decode the \n, \r, \t and \\ escapes that make a delimiter easy to put in a job configuration.
+     */
+    static byte[] parseDelimiter(String delimiter) {
+        if (delimiter == null || delimiter.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(delimiter.length());
+        for (int i = 0; i < delimiter.length(); i++) {
+            char c = delimiter.charAt(i);
+            if (c == '\\' && i + 1 < delimiter.length()) {
+                char e = delimiter.charAt(++i);
+                switch (e) {
+                case 'n':
+                    c = '\n';
+                    break;
+                case 'r':
+                    c = '\r';
+                    break;
+                case 't':
+                    c = '\t';
+                    break;
+                case '\\':
+                    c = '\\';
+                    break;
+                default:
+                    sb.append('\\');
+                    c = e;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString().getBytes();
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.*;
+
+/**
+ * Codec lookup and decompressor pooling for the document readers. Building a CompressionCodecFactory instantiates
+ * every configured codec, so one factory is kept per io.compression.codecs list; decompressors (native ones included)
+ * are borrowed from the CodecPool rather than created and torn down for every document.
+ *
+ * The factories are keyed on the codec list rather than the configuration, and built from a default configuration
+ * with just that list, since configurable codecs hold on to the configuration they're built with: a cache of job
+ * configurations would keep every one alive. Codecs therefore see the default settings, not the job's.
+ */
+final class DocumentCodecs {
+    private static final String CODECS = "io.compression.codecs";
+    private static final Map<String, CompressionCodecFactory> factories =
+            new HashMap<String, CompressionCodecFactory>();
+
+    private DocumentCodecs() {
+    }
+
+    /**
+     * The codec for the file, based on its suffix, or null if it isn't compressed.
+     */
+    static CompressionCodec getCodec(Path file, Configuration conf) {
+        String codecs = conf.get(CODECS, "");
+        CompressionCodecFactory factory;
+        synchronized (factories) {
+            factory = factories.get(codecs);
+            if (factory == null) {
+                Configuration codecConf = new Configuration();
+                if (conf.get(CODECS) != null) {
+                    codecConf.set(CODECS, codecs);
+                }
+                codecConf.setClassLoader(conf.getClassLoader());
+                factory = new CompressionCodecFactory(codecConf);
+                factories.put(codecs, factory);
+            }
+        }
+        return factory.getCodec(file);
+    }
+
+    /**
+     * Borrow a decompressor for the codec from the pool; null if the codec doesn't use one.
+     */
+    static Decompressor borrowDecompressor(CompressionCodec codec) {
+        return CodecPool.getDecompressor(codec);
+    }
+
+    static InputStream createInputStream(CompressionCodec codec, Decompressor decompressor, InputStream in)
+            throws IOException {
+        return decompressor == null ? codec.createInputStream(in) : codec.createInputStream(in, decompressor);
+    }
+
+    /**
+     * Return a borrowed decompressor, reset so the next borrower starts clean.
+     */
+    static void returnDecompressor(Decompressor decompressor) {
+        if (decompressor != null) {
+            decompressor.reset();
+            CodecPool.returnDecompressor(decompressor);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.*;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Compacts directories of small documents into document archives, so that later jobs read a few large files rather
+ * than millions of small ones. A map-only job reads the documents with CombineDocumentInputFormat and writes them with
+ * DocumentArchiveOutputFormat, one archive file (and index) per map task; the size of the archive files is therefore
+ * set by docinput.combine.max.split.size.
+ *
+ * Read the archives with DocumentArchiveInputFormat, or look up single documents with DocumentArchive.
+ *
+ * Usage: DocumentCompactor [generic options] &lt;output dir&gt; &lt;input dir or glob&gt;...
+ *
+ */
+@SuppressWarnings("deprecation")
+public class DocumentCompactor extends Configured implements Tool {
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: DocumentCompactor [generic options] <output dir> <input dir or glob>...");
+            return 2;
+        }
+        JobConf job = new JobConf(getConf(), DocumentCompactor.class);
+        job.setJobName("compact documents into " + args[0]);
+        job.setInputFormat(CombineDocumentInputFormat.class);
+        // archives hold the documents as they are
+        job.set("docinput.prepend.key", "");
+        for (int i = 1; i < args.length; i++) {
+            FileInputFormat.addInputPath(job, new Path(args[i]));
+        }
+        job.setMapperClass(IdentityMapper.class);
+        job.setNumReduceTasks(0);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        job.setOutputFormat(DocumentArchiveOutputFormat.class);
+        FileOutputFormat.setOutputPath(job, new Path(args[0]));
+        return JobClient.runJob(job).isSuccessful() ? 0 : 1;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new DocumentCompactor(), args));
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * Selects input documents by their file metadata alone, so that documents filtered out are never scheduled or opened.
+ * DocumentInputFormat applies it when listing its input. All criteria are optional:
+ * docinput.filter.min.size and docinput.filter.max.size bound the file length in bytes,
+ * docinput.filter.modified.after and docinput.filter.modified.before bound the modification time (in milliseconds
+ * since the epoch, after inclusive and before exclusive), and docinput.filter.include and docinput.filter.exclude are
+ * regular expressions a document's full path must and must not contain a match of.
+ *
+ */
+public class DocumentFilter {
+    public static final String MIN_SIZE = "docinput.filter.min.size";
+    public static final String MAX_SIZE = "docinput.filter.max.size";
+    public static final String MODIFIED_AFTER = "docinput.filter.modified.after";
+    public static final String MODIFIED_BEFORE = "docinput.filter.modified.before";
+    public static final String INCLUDE = "docinput.filter.include";
+    public static final String EXCLUDE = "docinput.filter.exclude";
+
+    private final long minSize;
+    private final long maxSize;
+    private final long modifiedAfter;
+    private final long modifiedBefore;
+    private final Pattern include;
+    private final Pattern exclude;
+
+    public DocumentFilter(Configuration conf) {
+        minSize = conf.getLong(MIN_SIZE, 0L);
+        maxSize = conf.getLong(MAX_SIZE, Long.MAX_VALUE);
+        modifiedAfter = conf.getLong(MODIFIED_AFTER, Long.MIN_VALUE);
+        modifiedBefore = conf.getLong(MODIFIED_BEFORE, Long.MAX_VALUE);
+        include = compile(conf.get(INCLUDE));
+        exclude = compile(conf.get(EXCLUDE));
+    }
+
+    private static Pattern compile(String regex) {
+        return regex == null || regex.isEmpty() ? null : Pattern.compile(regex);
+    }
+
+    /**
+     * @return true if no criteria are set
+     */
+    public boolean acceptsAll() {
+        return minSize <= 0 && maxSize == Long.MAX_VALUE && modifiedAfter == Long.MIN_VALUE
+                && modifiedBefore == Long.MAX_VALUE && include == null && exclude == null;
+    }
+
+    public boolean accept(FileStatus file) {
+        if (file.getLen() < minSize || file.getLen() > maxSize) {
+            return false;
+        }
+        if (file.getModificationTime() < modifiedAfter || file.getModificationTime() >= modifiedBefore) {
+            return false;
+        }
+        if (include == null && exclude == null) {
+            return true;
+        }
+        String path = file.getPath().toString();
+        return (include == null || include.matcher(path).find()) && (exclude == null || !exclude.matcher(path).find());
+    }
+
+    /**
+     * @param files
+     * @return the accepted files, in the same order
+     */
+    public FileStatus[] filter(FileStatus[] files) {
+        List<FileStatus> accepted = new ArrayList<FileStatus>(files.length);
+        for (FileStatus file : files) {
+            if (accept(file)) {
+                accepted.add(file);
+            }
+        }
+        return accepted.toArray(new FileStatus[accepted.size()]);
+    }
+}
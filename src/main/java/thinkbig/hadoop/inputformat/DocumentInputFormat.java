@@ -17,7 +17,14 @@ package thinkbig.hadoop.inputformat;
 
 import java.io.*;
 import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.*;
 import org.apache.hadoop.fs.FileSystem;
@@ -33,16 +40,164 @@ import org.apache.hadoop.mapred.*;
  * before the contents of the document as the value. This is mostly useful for Hive, which oddly won't expose keys as part of the
  * data in a row.
  * 
+ * Each document is read into a buffer sized from its file length (or, for compressed files, the file length times
+ * docinput.compressed.size.estimate, but no more than 8MB up front; the buffer doubles from there as the document is
+ * read) and the buffer is reused from one document to the next. Set docinput.max.document.size to fail fast on
+ * documents larger than that many bytes rather than exhausting the heap.
+ * 
+ * Set docinput.record.mode to read less than whole documents: in metadata mode the value is the document's length and
+ * modification time, tab separated, taken from the file system without opening the file, followed by a tab and the hex
+ * hash of the file's bytes (as stored, so before decompression) if docinput.metadata.hash names a MessageDigest
+ * algorithm such as MD5; in header mode the value is the first docinput.header.size bytes of the document
+ * (decompressed, default 4KB). Both honour docinput.prepend.key.
+ * 
+ * Documents too large to hold in memory can be read in chunked mode by setting docinput.chunk.size to a number of bytes.
+ * Each document is then emitted as a series of records of at most that size, keyed as described in DocumentChunkKey,
+ * and memory use stays constant whatever the size of the document. Set docinput.chunk.delimiter (which may use \n, \r
+ * and \t escapes) to end each chunk after the last delimiter in it, so that chunks don't split delimited records.
+ * 
+ * Set docinput.local.mmap to true to memory map uncompressed documents on the local file system of at least
+ * docinput.local.mmap.min.size bytes (default 1MB), rather than reading them through a stream. Each document is then
+ * copied once, straight into the value. Local checksums are not verified for mapped documents.
+ * 
+ * Set docinput.parallel.read.threads to more than 1 to read uncompressed documents larger than
+ * docinput.parallel.read.range.size bytes (default 8MB) as that many concurrent positioned reads of ranges of that
+ * size, straight into the value buffer. This helps most on high latency stores such as s3n and for documents spanning
+ * several HDFS blocks. Compressed documents are read sequentially.
+ * 
+ * Set docinput.content.hash to a MessageDigest algorithm (such as SHA-256) to hash each whole document (or archive
+ * entry) as it is read; the key is then the path, a tab and the hex hash. docinput.prepend.key still prepends the path
+ * alone. Set docinput.dedup to true (which defaults the hash to SHA-256) to skip documents whose hash was already seen
+ * by the task, or is listed in docinput.dedup.hashes: a file, or directory of files, of hex hashes one per line, such
+ * as the hashes of the keys emitted by an earlier run. Skipped documents are counted in DUPLICATE_DOCUMENTS and
+ * DUPLICATE_BYTES rather than DOCUMENTS. Hashes are held in memory for the life of the task. Chunked documents aren't hashed.
+ * 
+ * Each document read is counted in the DocumentCounter counters (documents, raw and decompressed bytes, open and read
+ * time, and a histogram of document sizes). Documents taking longer than docinput.log.slow.millis to open and read, or
+ * larger than docinput.log.large.size bytes, are logged with their paths.
+ * 
+ * Splits are planned on docinput.split.threads threads (default 1): with more, input globs are expanded, directories
+ * listed and block locations looked up concurrently. Set docinput.input.recursive to true to read the files in
+ * subdirectories of the input directories. Each split prefers the hosts holding the most bytes of its document. The
+ * time taken to plan splits and the size of the largest split against the mean (the predicted critical path) are
+ * logged.
+ * 
+ * Documents can be selected by size, modification time and path before any are opened, with the docinput.filter.*
+ * parameters described in DocumentFilter, and a deterministic sample of them picked with the docinput.sample.*
+ * parameters described in DocumentSampler.
+ * 
+ * Set docinput.archive.entries to true to read zip, tar, .tgz and codec-compressed tar (such as .tar.gz) files entry by
+ * entry, in one pass without extracting them. Each file entry is emitted as a record keyed by the archive path, "!/"
+ * and the entry name, and docinput.max.document.size applies to each entry; memory use is bounded by the largest entry.
+ * Archives are read whole, entry by entry, even in chunked mode.
+ * 
+ * Set docinput.manifest.dir to ingest incrementally: files already processed by an earlier committed run, with the
+ * same length and modification time, are left out of the splits, and the files planned into splits are recorded once
+ * the job commits with DocumentManifestCommitter (see DocumentManifest).
+ * 
  * @author rbodkin
  * 
  */
 @SuppressWarnings("deprecation")
 public class DocumentInputFormat extends FileInputFormat<Text,Text> implements JobConfigurable {
+    public static final String MAX_DOCUMENT_SIZE = "docinput.max.document.size";
+    public static final String COMPRESSED_SIZE_ESTIMATE = "docinput.compressed.size.estimate";
+    public static final float DEFAULT_COMPRESSED_SIZE_ESTIMATE = 4f;
+    // most bytes allocated up front for a compressed document, whose size is only estimated
+    static final long MAX_ESTIMATED_SIZE = 8 * 1024 * 1024;
+    public static final String CHUNK_SIZE = "docinput.chunk.size";
+    public static final String CHUNK_DELIMITER = "docinput.chunk.delimiter";
+    public static final String SPLIT_THREADS = "docinput.split.threads";
+    public static final String INPUT_RECURSIVE = "docinput.input.recursive";
+    public static final String RECORD_MODE = "docinput.record.mode";
+    public static final String METADATA_HASH = "docinput.metadata.hash";
+    public static final String HEADER_SIZE = "docinput.header.size";
+    public static final int DEFAULT_HEADER_SIZE = 4096;
+    public static final String CONTENT_HASH = "docinput.content.hash";
+    /** separates the path from the content hash in keys */
+    public static final String CONTENT_HASH_SEPARATOR = "\t";
+    public static final String DEDUP = "docinput.dedup";
+    public static final String DEDUP_HASHES = "docinput.dedup.hashes";
+    public static final String READ_ARCHIVE_ENTRIES = "docinput.archive.entries";
+    /** separates the archive path from the entry name in the keys of archive entries */
+    public static final String ARCHIVE_ENTRY_SEPARATOR = "!/";
+    public static final String PARALLEL_READ_THREADS = "docinput.parallel.read.threads";
+    public static final String PARALLEL_READ_RANGE_SIZE = "docinput.parallel.read.range.size";
+    public static final long DEFAULT_PARALLEL_READ_RANGE_SIZE = 8 * 1024 * 1024;
+    public static final String MAP_LOCAL_FILES = "docinput.local.mmap";
+    public static final String MAP_MIN_SIZE = "docinput.local.mmap.min.size";
+    public static final long DEFAULT_MAP_MIN_SIZE = 1024 * 1024;
+    public static final String SLOW_DOCUMENT_MILLIS = "docinput.log.slow.millis";
+    public static final long DEFAULT_SLOW_DOCUMENT_MILLIS = 10 * 1000;
+    public static final String LARGE_DOCUMENT_SIZE = "docinput.log.large.size";
+    public static final long DEFAULT_LARGE_DOCUMENT_SIZE = 256L * 1024 * 1024;
+
+    private static final Log LOG = LogFactory.getLog(DocumentInputFormat.class);
+
+    /**
+     * Counters of the documents read. Times are in milliseconds; the DOCUMENTS_UNDER/OVER counters are a histogram of
+     * decompressed document sizes. DOCUMENTS, the histogram and SLOW/LARGE_DOCUMENTS count the documents emitted, each
+     * archive once however many of its entries are; a document skipped as a duplicate is counted in
+     * DUPLICATE_DOCUMENTS and DUPLICATE_BYTES instead, though the bytes and time spent reading it still count in the
+     * byte and time counters.
+     */
+    public static enum DocumentCounter {
+        DOCUMENTS, RAW_BYTES, DECOMPRESSED_BYTES, OPEN_MILLIS, READ_MILLIS, SLOW_DOCUMENTS, LARGE_DOCUMENTS,
+        DOCUMENTS_UNDER_1KB, DOCUMENTS_UNDER_64KB, DOCUMENTS_UNDER_1MB, DOCUMENTS_UNDER_64MB, DOCUMENTS_UNDER_1GB,
+        DOCUMENTS_OVER_1GB, ARCHIVE_ENTRIES, DUPLICATE_DOCUMENTS, DUPLICATE_BYTES
+    }
+
+    private static final long[] HISTOGRAM_LIMITS = { 1L << 10, 1L << 16, 1L << 20, 1L << 26, 1L << 30 };
+
+    /**
+     * What each record holds: the whole document, its metadata (docinput.record.mode=metadata) or its first bytes
+     * (docinput.record.mode=header)
+     */
+    public static enum RecordMode {
+        DOCUMENT, METADATA, HEADER
+    }
+
     private String prependKey = null;
+    private RecordMode recordMode = RecordMode.DOCUMENT;
+    private String metadataHash = null;
+    private int headerSize = DEFAULT_HEADER_SIZE;
+    private long maxDocumentSize = Long.MAX_VALUE;
+    private float compressedSizeEstimate = DEFAULT_COMPRESSED_SIZE_ESTIMATE;
+    private int chunkSize = 0;
+    private byte[] chunkDelimiter = null;
+    private String contentHash = null;
+    private boolean dedup = false;
+    private String dedupHashes = null;
+    // hashes of the documents seen by the task, shared by its readers; loaded on first use
+    private Set<String> seenHashes = null;
+    private boolean readArchiveEntries = false;
+    private int parallelReadThreads = 1;
+    private long parallelReadRangeSize = DEFAULT_PARALLEL_READ_RANGE_SIZE;
+    private boolean mapLocalFiles = false;
+    private long mapMinSize = DEFAULT_MAP_MIN_SIZE;
+    private long slowDocumentMillis = DEFAULT_SLOW_DOCUMENT_MILLIS;
+    private long largeDocumentSize = DEFAULT_LARGE_DOCUMENT_SIZE;
     
     @Override
     public void configure(JobConf conf) {
         prependKey = conf.get("docinput.prepend.key");
+        recordMode = RecordMode.valueOf(conf.get(RECORD_MODE, RecordMode.DOCUMENT.name()).toUpperCase());
+        metadataHash = conf.get(METADATA_HASH);
+        headerSize = conf.getInt(HEADER_SIZE, DEFAULT_HEADER_SIZE);
+        maxDocumentSize = conf.getLong(MAX_DOCUMENT_SIZE, Long.MAX_VALUE);
+        compressedSizeEstimate = conf.getFloat(COMPRESSED_SIZE_ESTIMATE, DEFAULT_COMPRESSED_SIZE_ESTIMATE);
+        chunkSize = conf.getInt(CHUNK_SIZE, 0);
+        chunkDelimiter = DocumentChunker.parseDelimiter(conf.get(CHUNK_DELIMITER));
+        dedup = conf.getBoolean(DEDUP, false);
+        contentHash = conf.get(CONTENT_HASH, dedup ? "SHA-256" : null);
+        dedupHashes = conf.get(DEDUP_HASHES);
+        readArchiveEntries = conf.getBoolean(READ_ARCHIVE_ENTRIES, false);
+        parallelReadThreads = conf.getInt(PARALLEL_READ_THREADS, 1);
+        parallelReadRangeSize = Math.max(1, conf.getLong(PARALLEL_READ_RANGE_SIZE, DEFAULT_PARALLEL_READ_RANGE_SIZE));
+        mapLocalFiles = conf.getBoolean(MAP_LOCAL_FILES, false);
+        mapMinSize = conf.getLong(MAP_MIN_SIZE, DEFAULT_MAP_MIN_SIZE);
+        slowDocumentMillis = conf.getLong(SLOW_DOCUMENT_MILLIS, DEFAULT_SLOW_DOCUMENT_MILLIS);
+        largeDocumentSize = conf.getLong(LARGE_DOCUMENT_SIZE, DEFAULT_LARGE_DOCUMENT_SIZE);
     }
 
     @Override
@@ -50,16 +205,114 @@ public class DocumentInputFormat extends FileInputFormat<Text,Text> implements J
         return false;
     }
 
+    @Override
+    public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+        long start = System.currentTimeMillis();
+        FileStatus[] files = listStatus(job);
+        for (FileStatus file : files) {
+            if (file.isDir()) {
+                throw new IOException("Not a file: " + file.getPath());
+            }
+        }
+        BlockLocation[][] blocks = SplitPlanner.locate(job, files, job.getInt(SPLIT_THREADS, 1));
+        writePending(job, files);
+        InputSplit[] splits = new InputSplit[files.length];
+        for (int i = 0; i < files.length; i++) {
+            splits[i] = new FileSplit(files[i].getPath(), 0, files[i].getLen(), DocumentSplits.rankHosts(blocks[i],
+                    files[i].getReplication()));
+        }
+        String criticalPath = DocumentSplits.describeCriticalPath(splits);
+        LOG.info("Planned " + splits.length + " splits in " + (System.currentTimeMillis() - start) + " ms; "
+                + criticalPath);
+        return splits;
+    }
+
+    @Override
+    protected FileStatus[] listStatus(JobConf job) throws IOException {
+        long start = System.currentTimeMillis();
+        int threads = job.getInt(SPLIT_THREADS, 1);
+        boolean recursive = job.getBoolean(INPUT_RECURSIVE, false);
+        FileStatus[] files = threads > 1 || recursive ? SplitPlanner.listStatus(job, recursive, threads)
+                : super.listStatus(job);
+        LOG.info("Listed " + files.length + " input files in " + (System.currentTimeMillis() - start) + " ms");
+        DocumentFilter filter = new DocumentFilter(job);
+        if (!filter.acceptsAll()) {
+            int listed = files.length;
+            files = filter.filter(files);
+            LOG.info("Filtered out " + (listed - files.length) + " of " + listed + " documents");
+        }
+        DocumentSampler sampler = new DocumentSampler(job);
+        if (!sampler.picksAll()) {
+            int listed = files.length;
+            files = sampler.sample(files);
+            LOG.info("Sampled " + files.length + " of " + listed + " documents");
+        }
+        String manifestDir = job.get(DocumentManifest.MANIFEST_DIR);
+        if (manifestDir == null) {
+            return files;
+        }
+        return new DocumentManifest(new Path(manifestDir), job).filter(files);
+    }
+
+    /**
+     * Record the files a job is about to read as a pending manifest segment, if the job uses a manifest. Only split
+     * planning does this, not listStatus, so tools listing the input leave the manifest alone.
+     */
+    static void writePending(JobConf job, FileStatus[] files) throws IOException {
+        String manifestDir = job.get(DocumentManifest.MANIFEST_DIR);
+        if (manifestDir != null) {
+            // split planning runs before the job's configuration is submitted, so the tasks and committer see this
+            job.set(DocumentManifest.PENDING_SEGMENT, new DocumentManifest(new Path(manifestDir), job)
+                    .writePending(files));
+        }
+    }
+
     @Override
     public RecordReader<Text, Text> getRecordReader(InputSplit split, JobConf job, Reporter reporter) {
         try {
-            return new FullDocRecordReader((FileSplit) split, job);
+            return new FullDocRecordReader((FileSplit) split, job, reporter);
         }
         catch (IOException ioe) {
             throw new RuntimeException(ioe);
         }
     }
 
+    // range reads with this format's settings, for a record reader to share across the documents it reads
+    RangeReads newRangeReads() {
+        return new RangeReads(parallelReadRangeSize, parallelReadThreads);
+    }
+
+    private synchronized Set<String> seenHashes(Configuration conf) throws IOException {
+        if (seenHashes == null) {
+            seenHashes = new HashSet<String>();
+            if (dedupHashes != null) {
+                Path path = new Path(dedupHashes);
+                FileSystem fs = path.getFileSystem(conf);
+                FileStatus[] files = fs.getFileStatus(path).isDir() ? fs.listStatus(path) : new FileStatus[] {
+                        fs.getFileStatus(path) };
+                for (FileStatus hashes : files) {
+                    String name = hashes.getPath().getName();
+                    if (hashes.isDir() || name.startsWith("_") || name.startsWith(".")) {
+                        continue;
+                    }
+                    BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(hashes.getPath()), "UTF-8"));
+                    try {
+                        for (String line = in.readLine(); line != null; line = in.readLine()) {
+                            line = line.trim();
+                            if (!line.isEmpty()) {
+                                seenHashes.add(line.toLowerCase());
+                            }
+                        }
+                    } finally {
+                        in.close();
+                    }
+                }
+                LOG.info("Loaded " + seenHashes.size() + " document hashes from " + dedupHashes);
+            }
+        }
+        return seenHashes;
+    }
+
     // with HADOOP-0412, getPos is available as a method call on the class
     private static Method getPosMethod = null;
     static {
@@ -70,59 +323,389 @@ public class DocumentInputFormat extends FileInputFormat<Text,Text> implements J
     }
     
     /**
-     * FullDocRecordReader class to read an entire document as text.
+     * FullDocRecordReader class to read an entire document as text, or as a series of chunks in chunked mode.
      * 
      */
     public class FullDocRecordReader implements RecordReader<Text, Text> {
 
         private final InputStream fsin;
+        // null in metadata mode without a hash
         private final FSDataInputStream rawFsin;
+        private final DocumentBuffer buffer;
+        private final long expectedSize;
+        private final DocumentChunker chunker;
+        private final long fileLength;
+        private Decompressor decompressor = null;
         private boolean hasRead = false;
         private Path file;
+        private final FileSystem fs;
+        private final Reporter reporter;
+        private final long openNanos;
+        private long readNanos = 0;
+        private long documentSize = 0;
+        private boolean closed = false;
+        private File mappedFile = null;
+        private boolean rangeReads = false;
+        // bytes read other than through rawFsin, by mapping or range reads
+        private long directBytes = 0;
+        private ArchiveEntries archive = null;
+        private FileStatus status = null;
+        private MessageDigest contentDigest = null;
+        private Set<String> seen = null;
+        // a whole document skipped as a duplicate, so not counted as a document
+        private boolean duplicate = false;
+        private RangeReads rangeReader;
+        // whether rangeReader was started by this reader, rather than shared by a CombineDocRecordReader
+        private boolean ownsRangeReader = false;
 
         public FullDocRecordReader(FileSplit split, Configuration conf) throws IOException {
+            this(split, conf, Reporter.NULL);
+        }
+
+        public FullDocRecordReader(FileSplit split, Configuration conf, Reporter reporter) throws IOException {
+            this(split, conf, new DocumentBuffer(), reporter);
+        }
+
+        FullDocRecordReader(FileSplit split, Configuration conf, DocumentBuffer buffer, Reporter reporter)
+                throws IOException {
+            this(split, conf, buffer, null, reporter);
+        }
+
+        FullDocRecordReader(FileSplit split, Configuration conf, DocumentBuffer buffer, RangeReads rangeReader,
+                Reporter reporter) throws IOException {
+            long start = System.nanoTime();
             file = split.getPath();
-            CompressionCodecFactory compressionCodecs = new CompressionCodecFactory(conf);
-            final CompressionCodec codec = compressionCodecs.getCodec(file);
-            FileSystem fs = file.getFileSystem(conf);
-            rawFsin = fs.open(file);
-            if (codec == null) {
+            this.buffer = buffer;
+            this.rangeReader = rangeReader;
+            this.reporter = reporter == null ? Reporter.NULL : reporter;
+            fileLength = split.getLength();
+            final CompressionCodec codec = DocumentCodecs.getCodec(file, conf);
+            fs = file.getFileSystem(conf);
+            if (recordMode == RecordMode.METADATA) {
+                status = fs.getFileStatus(file);
+                rawFsin = metadataHash == null ? null : fs.open(file);
                 fsin = rawFsin;
+                expectedSize = 0;
+            } else if (codec == null) {
+                rawFsin = fs.open(file);
+                fsin = rawFsin;
+                expectedSize = split.getLength();
             } else {
-                fsin = codec.createInputStream(rawFsin);
+                rawFsin = fs.open(file);
+                decompressor = DocumentCodecs.borrowDecompressor(codec);
+                try {
+                    fsin = DocumentCodecs.createInputStream(codec, decompressor, rawFsin);
+                } catch (IOException e) {
+                    DocumentCodecs.returnDecompressor(decompressor);
+                    rawFsin.close();
+                    throw e;
+                }
+                expectedSize = Math.min((long) (split.getLength() * compressedSizeEstimate), MAX_ESTIMATED_SIZE);
+            }
+            if (readArchiveEntries && recordMode == RecordMode.DOCUMENT) {
+                try {
+                    archive = ArchiveEntries.open(file.getName(), fsin, codec != null);
+                } catch (IOException e) {
+                    closeStreams();
+                    throw e;
+                }
+            }
+            boolean wholeDocuments = recordMode == RecordMode.DOCUMENT && archive == null;
+            chunker = wholeDocuments && chunkSize > 0 ? new DocumentChunker(chunkSize, chunkDelimiter) : null;
+            if (contentHash != null && recordMode == RecordMode.DOCUMENT && chunker == null) {
+                try {
+                    contentDigest = MessageDigest.getInstance(contentHash);
+                    seen = dedup ? seenHashes(conf) : null;
+                } catch (NoSuchAlgorithmException e) {
+                    closeStreams();
+                    throw new IOException("Unknown " + CONTENT_HASH + "=" + contentHash);
+                } catch (IOException e) {
+                    closeStreams();
+                    throw e;
+                }
+            }
+            if (wholeDocuments && codec == null && chunker == null) {
+                if (expectedSize > maxDocumentSize) {
+                    rawFsin.close();
+                    throw tooLarge();
+                }
+                if (mapLocalFiles && expectedSize >= mapMinSize) {
+                    mappedFile = MappedDocuments.localFile(fs, file);
+                }
+                rangeReads = mappedFile == null && parallelReadThreads > 1 && expectedSize > parallelReadRangeSize;
             }
+            openNanos = System.nanoTime() - start;
+        }
+
+        private IOException tooLarge() {
+            return new IOException("Document " + file + " is larger than " + MAX_DOCUMENT_SIZE + "=" + maxDocumentSize
+                    + " bytes");
         }
 
         @Override
         public boolean next(Text key, Text value) throws IOException {
+            if (recordMode == RecordMode.METADATA)
+                return nextMetadata(key, value);
+            if (chunker != null)
+                return nextChunk(key, value);
+            if (archive != null)
+                return nextEntry(key, value);
             if (hasRead)
                 return false;
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            buffer.reset();
             if (prependKey!=null && !prependKey.isEmpty()) {
-                bos.write(file.toString().getBytes());
-                bos.write(prependKey.getBytes());
+                buffer.append(file.toString().getBytes());
+                buffer.append(prependKey.getBytes());
+            }
+            if (recordMode == RecordMode.HEADER) {
+                return nextHeader(key, value);
             }
-            byte[] chunk=new byte[16*1024];            
-            for(;;) {
-                int len = fsin.read(chunk);
-                if (len == -1)
-                    break; //EFO
-                bos.write(chunk, 0, len);
+            if (mappedFile != null) {
+                return nextMapped(key, value);
             }
+            if (rangeReads) {
+                return nextRanges(key, value);
+            }
+            long maxSize = maxDocumentSize == Long.MAX_VALUE ? Long.MAX_VALUE : buffer.getLength() + maxDocumentSize;
+            int prefixLength = buffer.getLength();
+            long start = System.nanoTime();
+            if (!buffer.readFully(fsin, expectedSize, maxSize)) {
+                throw tooLarge();
+            }
+            readNanos += System.nanoTime() - start;
+            documentSize = buffer.getLength() - prefixLength;
             
-            value.set(bos.toByteArray());
+            value.set(buffer.getBytes(), 0, buffer.getLength());
+            hasRead = true;
+            return keep(key, file.toString(), buffer.getBytes(), prefixLength, buffer.getLength() - prefixLength);
+        }
+
+        /**
+         * Set the key of a document just read, hashing the document if asked to
+         * @return false if the document is a duplicate to skip
+         */
+        private boolean keep(Text key, String path, byte[] bytes, int offset, int length) {
+            if (contentDigest == null) {
+                key.set(path);
+                return true;
+            }
+            contentDigest.reset();
+            contentDigest.update(bytes, offset, length);
+            String hash = Hex.encodeHexString(contentDigest.digest());
+            if (seen != null) {
+                boolean duplicate;
+                synchronized (seen) {
+                    duplicate = !seen.add(hash);
+                }
+                if (duplicate) {
+                    reporter.incrCounter(DocumentCounter.DUPLICATE_DOCUMENTS, 1);
+                    reporter.incrCounter(DocumentCounter.DUPLICATE_BYTES, length);
+                    this.duplicate = archive == null;
+                    return false;
+                }
+            }
+            key.set(path + CONTENT_HASH_SEPARATOR + hash);
+            return true;
+        }
+
+        private boolean nextHeader(Text key, Text value) throws IOException {
+            long start = System.nanoTime();
+            documentSize = buffer.readUpTo(fsin, headerSize);
+            readNanos += System.nanoTime() - start;
+            value.set(buffer.getBytes(), 0, buffer.getLength());
             key.set(file.toString());
             hasRead = true;
             return true;
         }
 
+        private boolean nextMetadata(Text key, Text value) throws IOException {
+            if (hasRead)
+                return false;
+            StringBuilder metadata = new StringBuilder();
+            metadata.append(status.getLen()).append('\t').append(status.getModificationTime());
+            if (rawFsin != null) {
+                metadata.append('\t').append(hash());
+            }
+            buffer.reset();
+            if (prependKey!=null && !prependKey.isEmpty()) {
+                buffer.append(file.toString().getBytes());
+                buffer.append(prependKey.getBytes());
+            }
+            buffer.append(metadata.toString().getBytes());
+            value.set(buffer.getBytes(), 0, buffer.getLength());
+            key.set(file.toString());
+            hasRead = true;
+            return true;
+        }
+
+        private String hash() throws IOException {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance(metadataHash);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("Unknown " + METADATA_HASH + "=" + metadataHash);
+            }
+            long start = System.nanoTime();
+            byte[] chunk = new byte[64 * 1024];
+            int len;
+            while ((len = rawFsin.read(chunk)) != -1) {
+                digest.update(chunk, 0, len);
+                documentSize += len;
+            }
+            readNanos += System.nanoTime() - start;
+            return Hex.encodeHexString(digest.digest());
+        }
+
+        private boolean nextMapped(Text key, Text value) throws IOException {
+            byte[] prefix = new byte[buffer.getLength()];
+            System.arraycopy(buffer.getBytes(), 0, prefix, 0, prefix.length);
+            long start = System.nanoTime();
+            long size = MappedDocuments.read(mappedFile, prefix, maxDocumentSize, value);
+            readNanos += System.nanoTime() - start;
+            if (size < 0) {
+                throw tooLarge();
+            }
+            documentSize = size;
+            directBytes = size;
+            hasRead = true;
+            return keep(key, file.toString(), value.getBytes(), prefix.length, (int) size);
+        }
+
+        private boolean nextEntry(Text key, Text value) throws IOException {
+            for (;;) {
+                long start = System.nanoTime();
+                if (hasRead || !archive.next()) {
+                    readNanos += System.nanoTime() - start;
+                    hasRead = true;
+                    return false;
+                }
+                String entryKey = file.toString() + ARCHIVE_ENTRY_SEPARATOR + archive.getName();
+                buffer.reset();
+                if (prependKey!=null && !prependKey.isEmpty()) {
+                    buffer.append(entryKey.getBytes());
+                    buffer.append(prependKey.getBytes());
+                }
+                int prefixLength = buffer.getLength();
+                long maxSize = maxDocumentSize == Long.MAX_VALUE ? Long.MAX_VALUE : prefixLength + maxDocumentSize;
+                if (!buffer.readFully(archive.getStream(), archive.getSize(), maxSize)) {
+                    throw new IOException("Entry " + entryKey + " is larger than " + MAX_DOCUMENT_SIZE + "="
+                            + maxDocumentSize + " bytes");
+                }
+                readNanos += System.nanoTime() - start;
+                documentSize += buffer.getLength() - prefixLength;
+                reporter.incrCounter(DocumentCounter.ARCHIVE_ENTRIES, 1);
+                if (keep(key, entryKey, buffer.getBytes(), prefixLength, buffer.getLength() - prefixLength)) {
+                    value.set(buffer.getBytes(), 0, buffer.getLength());
+                    return true;
+                }
+            }
+        }
+
+        private boolean nextRanges(Text key, Text value) throws IOException {
+            if ((long) buffer.getLength() + fileLength > DocumentBuffer.MAX_ARRAY_SIZE) {
+                throw tooLarge();
+            }
+            long start = System.nanoTime();
+            if (rangeReader == null) {
+                rangeReader = newRangeReads();
+                ownsRangeReader = true;
+            }
+            rangeReader.read(fs, file, fileLength, buffer);
+            readNanos += System.nanoTime() - start;
+            documentSize = fileLength;
+            directBytes = fileLength;
+            value.set(buffer.getBytes(), 0, buffer.getLength());
+            hasRead = true;
+            return keep(key, file.toString(), buffer.getBytes(), (int) (buffer.getLength() - fileLength),
+                    (int) fileLength);
+        }
+
+        private boolean nextChunk(Text key, Text value) throws IOException {
+            long start = System.nanoTime();
+            boolean more = chunker.next(fsin);
+            readNanos += System.nanoTime() - start;
+            if (!more) {
+                hasRead = true;
+                return false;
+            }
+            documentSize += chunker.getLength();
+            String chunkKey = new DocumentChunkKey(file.toString(), chunker.getIndex(), chunker.getOffset(),
+                    chunker.isLast()).toString();
+            if (prependKey!=null && !prependKey.isEmpty()) {
+                buffer.reset();
+                buffer.append(chunkKey.getBytes());
+                buffer.append(prependKey.getBytes());
+                buffer.append(chunker.getBytes(), 0, chunker.getLength());
+                value.set(buffer.getBytes(), 0, buffer.getLength());
+            } else {
+                value.set(chunker.getBytes(), 0, chunker.getLength());
+            }
+            key.set(chunkKey);
+            return true;
+        }
+
         @Override
         public void close() throws IOException {
-            fsin.close();
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long rawBytes = rawPos() + directBytes;
+            closeStreams();
+            report(rawBytes);
+        }
+
+        private void closeStreams() throws IOException {
+            try {
+                if (archive != null) {
+                    archive.close();
+                } else if (fsin != null) {
+                    fsin.close();
+                }
+            } finally {
+                DocumentCodecs.returnDecompressor(decompressor);
+                decompressor = null;
+                if (ownsRangeReader) {
+                    rangeReader.close();
+                }
+            }
+        }
+
+        private void report(long rawBytes) {
+            long openMillis = openNanos / 1000000;
+            long readMillis = readNanos / 1000000;
+            reporter.incrCounter(DocumentCounter.RAW_BYTES, rawBytes);
+            reporter.incrCounter(DocumentCounter.DECOMPRESSED_BYTES, documentSize);
+            reporter.incrCounter(DocumentCounter.OPEN_MILLIS, openMillis);
+            reporter.incrCounter(DocumentCounter.READ_MILLIS, readMillis);
+            if (!hasRead || duplicate) {
+                return;
+            }
+            reporter.incrCounter(DocumentCounter.DOCUMENTS, 1);
+            int bucket = 0;
+            while (bucket < HISTOGRAM_LIMITS.length && documentSize >= HISTOGRAM_LIMITS[bucket]) {
+                bucket++;
+            }
+            reporter.incrCounter(DocumentCounter.values()[DocumentCounter.DOCUMENTS_UNDER_1KB.ordinal() + bucket], 1);
+            boolean slow = openMillis + readMillis > slowDocumentMillis;
+            boolean large = documentSize > largeDocumentSize;
+            if (slow) {
+                reporter.incrCounter(DocumentCounter.SLOW_DOCUMENTS, 1);
+            }
+            if (large) {
+                reporter.incrCounter(DocumentCounter.LARGE_DOCUMENTS, 1);
+            }
+            if (slow || large) {
+                LOG.warn((slow ? "Slow" : "Large") + " document " + file + ": " + documentSize + " bytes ("
+                        + rawBytes + " raw), opened in " + openMillis + " ms, read in " + readMillis + " ms");
+            }
         }
 
         @Override
         public float getProgress() throws IOException {
+            if ((chunker != null || archive != null) && !hasRead && fileLength > 0) {
+                return Math.min(1f, (float) rawFsin.getPos() / fileLength);
+            }
             return hasRead ? 1f : 0f;
         }
 
@@ -138,7 +721,11 @@ public class DocumentInputFormat extends FileInputFormat<Text,Text> implements J
 
         @Override
         public long getPos() throws IOException {
-            return rawFsin.getPos();
+            return rawPos() + directBytes;
+        }
+
+        private long rawPos() throws IOException {
+            return rawFsin == null ? 0 : rawFsin.getPos();
         }
     }
 
@@ -0,0 +1,365 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The manifest of documents processed by earlier runs, for incremental ingestion. Set docinput.manifest.dir and
+ * DocumentInputFormat drops every file whose path, length and modification time are in the manifest when listing its
+ * input, and getSplits records the files it planned as a pending segment. Committing the job
+ * (DocumentManifestCommitter does it automatically, or call commit(JobConf) after the job succeeds) turns the pending
+ * segment into a manifest segment, so a failed job's files are picked up again by the next run. Pending segments that
+ * never commit are cleaned up: DocumentManifestCommitter deletes an aborted job's, and each commit deletes those
+ * planned before it, which belong to runs that never committed (failed submissions, dry runs, killed clients).
+ *
+ * Each segment is a MapFile of path to (length, modification time), sorted by path, so a lookup is a binary search in
+ * its small in-memory index followed by a short scan, and candidates are looked up in sorted order so each segment is
+ * read forwards. The newest segment holding a path decides whether the file is unchanged. Once there are more than
+ * docinput.manifest.max.segments segments, commit merges them into one, keeping the newest entry of each path.
+ *
+ * A manifest directory should be used by one job at a time, and planned by one client at a time.
+ *
+ */
+public class DocumentManifest {
+    public static final String MANIFEST_DIR = "docinput.manifest.dir";
+    public static final String MAX_SEGMENTS = "docinput.manifest.max.segments";
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+    /** set by DocumentInputFormat to the pending segment of the job */
+    public static final String PENDING_SEGMENT = "docinput.manifest.pending";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String PENDING_DIR = "_pending";
+    private static final String MERGING_PREFIX = "merging-";
+    private static final Log LOG = LogFactory.getLog(DocumentManifest.class);
+
+    /**
+     * The length and modification time of a processed file
+     */
+    public static class Entry implements Writable {
+        private long length;
+        private long modificationTime;
+
+        public Entry() {
+        }
+
+        public Entry(long length, long modificationTime) {
+            this.length = length;
+            this.modificationTime = modificationTime;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getModificationTime() {
+            return modificationTime;
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException {
+            out.writeLong(length);
+            out.writeLong(modificationTime);
+        }
+
+        @Override
+        public void readFields(DataInput in) throws IOException {
+            length = in.readLong();
+            modificationTime = in.readLong();
+        }
+    }
+
+    private final Path dir;
+    private final FileSystem fs;
+    private final Configuration conf;
+
+    /**
+     * @param dir manifest directory (created on first commit)
+     * @param conf
+     * @throws IOException
+     */
+    public DocumentManifest(Path dir, Configuration conf) throws IOException {
+        this.dir = dir;
+        this.conf = conf;
+        fs = dir.getFileSystem(conf);
+    }
+
+    /**
+     * @return the committed segments, newest first
+     */
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<Path>();
+        FileStatus[] statuses = fs.exists(dir) ? fs.listStatus(dir) : null;
+        if (statuses != null) {
+            for (FileStatus status : statuses) {
+                if (status.getPath().getName().startsWith(SEGMENT_PREFIX)) {
+                    segments.add(status.getPath());
+                }
+            }
+        }
+        Collections.sort(segments, Collections.reverseOrder());
+        return segments;
+    }
+
+    private static Text[] sortedPaths(FileStatus[] files) {
+        Text[] paths = new Text[files.length];
+        for (int i = 0; i < files.length; i++) {
+            paths[i] = new Text(files[i].getPath().toString());
+        }
+        Arrays.sort(paths);
+        return paths;
+    }
+
+    /**
+     * @param files
+     * @return the files that aren't in the manifest with the same length and modification time, in the same order
+     * @throws IOException
+     */
+    public FileStatus[] filter(FileStatus[] files) throws IOException {
+        Map<String, FileStatus> byPath = new HashMap<String, FileStatus>();
+        for (FileStatus file : files) {
+            byPath.put(file.getPath().toString(), file);
+        }
+        Text[] paths = sortedPaths(files);
+        // the newest segment holding a path decides
+        Set<String> decided = new HashSet<String>();
+        Set<String> unchanged = new HashSet<String>();
+        Entry entry = new Entry();
+        for (Path segment : segments()) {
+            MapFile.Reader reader = new MapFile.Reader(fs, segment.toString(), conf);
+            try {
+                for (Text path : paths) {
+                    String p = path.toString();
+                    if (decided.contains(p) || reader.get(path, entry) == null) {
+                        continue;
+                    }
+                    decided.add(p);
+                    FileStatus file = byPath.get(p);
+                    if (entry.getLength() == file.getLen() && entry.getModificationTime() == file.getModificationTime()) {
+                        unchanged.add(p);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            if (decided.size() == byPath.size()) {
+                break;
+            }
+        }
+        List<FileStatus> fresh = new ArrayList<FileStatus>(files.length - unchanged.size());
+        for (FileStatus file : files) {
+            if (!unchanged.contains(file.getPath().toString())) {
+                fresh.add(file);
+            }
+        }
+        LOG.info("Manifest " + dir + ": skipping " + unchanged.size() + " unchanged of " + files.length + " files");
+        return fresh.toArray(new FileStatus[fresh.size()]);
+    }
+
+    /**
+     * Record files about to be processed, to be added to the manifest when committed
+     * @param files
+     * @return the name of the pending segment
+     * @throws IOException
+     */
+    public String writePending(FileStatus[] files) throws IOException {
+        String name = String.format("%013d-%08x", System.currentTimeMillis(), new Random().nextInt());
+        Map<String, FileStatus> byPath = new HashMap<String, FileStatus>();
+        for (FileStatus file : files) {
+            byPath.put(file.getPath().toString(), file);
+        }
+        MapFile.Writer writer = new MapFile.Writer(conf, fs, new Path(new Path(dir, PENDING_DIR), name).toString(),
+                Text.class, Entry.class);
+        try {
+            Text previous = null;
+            for (Text path : sortedPaths(files)) {
+                if (path.equals(previous)) {
+                    continue;
+                }
+                FileStatus file = byPath.get(path.toString());
+                writer.append(path, new Entry(file.getLen(), file.getModificationTime()));
+                previous = path;
+            }
+        } finally {
+            writer.close();
+        }
+        return name;
+    }
+
+    /**
+     * Add a pending segment to the manifest, merging the segments if there are too many
+     * @param pending name returned by writePending
+     * @throws IOException
+     */
+    public void commit(String pending) throws IOException {
+        Path source = new Path(new Path(dir, PENDING_DIR), pending);
+        if (!fs.exists(source)) {
+            throw new IOException("No pending manifest segment " + source);
+        }
+        // segments are named by commit time, which must order them even when commits fall in the same millisecond
+        List<Path> segments = segments();
+        long time = System.currentTimeMillis();
+        if (!segments.isEmpty()) {
+            time = Math.max(time, Long.parseLong(segments.get(0).getName().substring(SEGMENT_PREFIX.length())) + 1);
+        }
+        Path segment = new Path(dir, String.format("%s%013d", SEGMENT_PREFIX, time));
+        if (!fs.rename(source, segment)) {
+            throw new IOException("Couldn't commit manifest segment " + source);
+        }
+        segments.add(0, segment);
+        deleteOrphans(pending);
+        if (segments.size() > conf.getInt(MAX_SEGMENTS, DEFAULT_MAX_SEGMENTS)) {
+            merge(segments);
+        }
+    }
+
+    // with one job at a time, pending segments written before the one committed will never commit
+    private void deleteOrphans(String committed) throws IOException {
+        Path pendingDir = new Path(dir, PENDING_DIR);
+        FileStatus[] statuses = fs.listStatus(pendingDir);
+        if (statuses == null) {
+            return;
+        }
+        long committedTime = pendingTime(committed);
+        int deleted = 0;
+        for (FileStatus status : statuses) {
+            String name = status.getPath().getName();
+            if (!name.startsWith(MERGING_PREFIX) && pendingTime(name) < committedTime) {
+                fs.delete(status.getPath(), true);
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            LOG.info("Deleted " + deleted + " uncommitted pending manifest segments of " + dir);
+        }
+    }
+
+    // the time a pending segment was written, from its name
+    private static long pendingTime(String name) {
+        int dash = name.indexOf('-');
+        try {
+            return Long.parseLong(dash < 0 ? name : name.substring(0, dash));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Delete a pending segment that will never be committed
+     * @param pending name returned by writePending
+     * @throws IOException
+     */
+    public void abort(String pending) throws IOException {
+        fs.delete(new Path(new Path(dir, PENDING_DIR), pending), true);
+    }
+
+    /**
+     * Commit the pending segment recorded in the job's configuration, if any
+     * @param job
+     * @throws IOException
+     */
+    public static void commit(Configuration job) throws IOException {
+        String dir = job.get(MANIFEST_DIR);
+        String pending = job.get(PENDING_SEGMENT);
+        if (dir != null && pending != null) {
+            new DocumentManifest(new Path(dir), job).commit(pending);
+        }
+    }
+
+    /**
+     * Delete the pending segment recorded in the job's configuration, if any
+     * @param job
+     * @throws IOException
+     */
+    public static void abort(Configuration job) throws IOException {
+        String dir = job.get(MANIFEST_DIR);
+        String pending = job.get(PENDING_SEGMENT);
+        if (dir != null && pending != null) {
+            new DocumentManifest(new Path(dir), job).abort(pending);
+        }
+    }
+
+    // merge segments (newest first) into one named after the newest, keeping the newest entry of each path
+    private void merge(List<Path> segments) throws IOException {
+        Path merged = new Path(new Path(dir, PENDING_DIR), MERGING_PREFIX + segments.get(0).getName());
+        List<MapFile.Reader> readers = new ArrayList<MapFile.Reader>();
+        try {
+            final Text[] keys = new Text[segments.size()];
+            Entry[] entries = new Entry[segments.size()];
+            // ordered by key, then by segment age, newest first
+            PriorityQueue<Integer> heads = new PriorityQueue<Integer>(segments.size(), new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    int cmp = keys[a].compareTo(keys[b]);
+                    return cmp != 0 ? cmp : a - b;
+                }
+            });
+            for (int i = 0; i < segments.size(); i++) {
+                readers.add(new MapFile.Reader(fs, segments.get(i).toString(), conf));
+                keys[i] = new Text();
+                entries[i] = new Entry();
+                if (readers.get(i).next(keys[i], entries[i])) {
+                    heads.add(i);
+                }
+            }
+            MapFile.Writer writer = new MapFile.Writer(conf, fs, merged.toString(), Text.class, Entry.class);
+            try {
+                Text last = new Text();
+                boolean first = true;
+                while (!heads.isEmpty()) {
+                    int i = heads.poll();
+                    if (first || !keys[i].equals(last)) {
+                        writer.append(keys[i], entries[i]);
+                        last.set(keys[i]);
+                        first = false;
+                    }
+                    if (readers.get(i).next(keys[i], entries[i])) {
+                        heads.add(i);
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+        } finally {
+            for (MapFile.Reader reader : readers) {
+                reader.close();
+            }
+        }
+        // the merged segment replaces the newest; if this fails midway, the remaining segments hold nothing newer
+        Path newest = segments.get(0);
+        fs.delete(newest, true);
+        if (!fs.rename(merged, newest)) {
+            throw new IOException("Couldn't replace manifest segment " + newest);
+        }
+        for (Path segment : segments.subList(1, segments.size())) {
+            fs.delete(segment, true);
+        }
+        LOG.info("Merged " + segments.size() + " manifest segments of " + dir);
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.IOException;
+
+import org.apache.hadoop.mapred.FileOutputCommitter;
+import org.apache.hadoop.mapred.JobContext;
+
+/**
+ * Commits the job's output and then adds the files it read to the document manifest (see DocumentManifest), so a job
+ * that fails leaves the manifest as it was; an aborted or killed job's pending segment is deleted. Set with
+ * JobConf.setOutputCommitter for jobs using docinput.manifest.dir.
+ *
+ */
+@SuppressWarnings("deprecation")
+public class DocumentManifestCommitter extends FileOutputCommitter {
+
+    @Override
+    public void commitJob(JobContext context) throws IOException {
+        super.commitJob(context);
+        DocumentManifest.commit(context.getJobConf());
+    }
+
+    @Override
+    public void abortJob(JobContext context, int runState) throws IOException {
+        try {
+            super.abortJob(context, runState);
+        } finally {
+            DocumentManifest.abort(context.getJobConf());
+        }
+    }
+}
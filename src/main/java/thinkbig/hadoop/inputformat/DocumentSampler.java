@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * Picks a deterministic sample of the input documents when splits are planned, so documents left out are never
+ * scheduled or opened. Set docinput.sample.fraction (between 0 and 1) to sample; each document is ranked by a hash of
+ * docinput.sample.seed (default 0) and its path without scheme and authority, so the same seed and input always give
+ * the same sample, whichever cluster it runs on.
+ *
+ * Without stratification, a document is picked if its rank is below the fraction, so picking a document doesn't
+ * depend on what else is in the input. Set docinput.sample.stratum to a regular expression whose first group names a
+ * document's stratum (e.g. ^/data/([^/]+)/ for the top level directory, or (\d{4}/\d{2}/\d{2}) for a date partition)
+ * to instead pick the fraction of each stratum (rounded up, so at least one document) with the lowest ranks. Documents
+ * the expression doesn't match form a stratum of their own.
+ *
+ */
+public class DocumentSampler {
+    public static final String FRACTION = "docinput.sample.fraction";
+    public static final String SEED = "docinput.sample.seed";
+    public static final String STRATUM = "docinput.sample.stratum";
+
+    private final double fraction;
+    private final long seed;
+    private final Pattern stratum;
+
+    public DocumentSampler(Configuration conf) {
+        fraction = Double.parseDouble(conf.get(FRACTION, "1"));
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException(FRACTION + " must be between 0 and 1, not " + fraction);
+        }
+        seed = conf.getLong(SEED, 0L);
+        String regex = conf.get(STRATUM);
+        stratum = regex == null || regex.isEmpty() ? null : Pattern.compile(regex);
+    }
+
+    /**
+     * @return true if every document is picked
+     */
+    public boolean picksAll() {
+        return fraction >= 1;
+    }
+
+    /**
+     * @param path
+     * @return the document's rank, uniformly distributed in [0, 1)
+     */
+    double rank(String path) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+            md5.update((seed + ":" + path).getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = md5.digest();
+        long bits = 0;
+        for (int i = 0; i < 7; i++) {
+            bits = (bits << 8) | (digest[i] & 0xff);
+        }
+        // 53 bits, the precision of a double
+        return (bits >>> 3) / (double) (1L << 53);
+    }
+
+    /**
+     * @param files
+     * @return the picked files, in the same order
+     */
+    public FileStatus[] sample(FileStatus[] files) {
+        if (picksAll()) {
+            return files;
+        }
+        final double[] ranks = new double[files.length];
+        for (int i = 0; i < files.length; i++) {
+            ranks[i] = rank(files[i].getPath().toUri().getPath());
+        }
+        boolean[] picked = new boolean[files.length];
+        if (stratum == null) {
+            for (int i = 0; i < files.length; i++) {
+                picked[i] = ranks[i] < fraction;
+            }
+        } else {
+            Map<String, List<Integer>> strata = new HashMap<String, List<Integer>>();
+            for (int i = 0; i < files.length; i++) {
+                Matcher matcher = stratum.matcher(files[i].getPath().toUri().getPath());
+                String name = matcher.find() && matcher.groupCount() > 0 ? matcher.group(1) : null;
+                List<Integer> members = strata.get(name);
+                if (members == null) {
+                    members = new ArrayList<Integer>();
+                    strata.put(name, members);
+                }
+                members.add(i);
+            }
+            for (List<Integer> members : strata.values()) {
+                Collections.sort(members, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        return Double.compare(ranks[a], ranks[b]);
+                    }
+                });
+                int n = fraction == 0 ? 0 : (int) Math.ceil(fraction * members.size());
+                for (int i = 0; i < n; i++) {
+                    picked[members.get(i)] = true;
+                }
+            }
+        }
+        List<FileStatus> sample = new ArrayList<FileStatus>();
+        for (int i = 0; i < files.length; i++) {
+            if (picked[i]) {
+                sample.add(files[i]);
+            }
+        }
+        return sample.toArray(new FileStatus[sample.size()]);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.NodeBase;
+
+/**
+ * Locality and planning helpers shared by the document input formats. Documents are never split, so locality is
+ * computed over all of the blocks of a file rather than just the first one, and a single large document can hold up
+ * a whole job, so the largest split is reported against the mean.
+ */
+final class DocumentSplits {
+
+    private DocumentSplits() {
+    }
+
+    /**
+     * Hosts holding bytes of the file, ordered by the number of bytes they hold (most first), keeping at most
+     * maxHosts of them: the JobTracker treats every location of a split as equally local, so a host holding one block
+     * of a large document mustn't be listed alongside those holding most of it. Like FileInputFormat, callers pass the
+     * file's replication factor.
+     */
+    static String[] rankHosts(BlockLocation[] blocks, int maxHosts) throws IOException {
+        final Map<String, Long> bytesByHost = new HashMap<String, Long>();
+        if (blocks != null) {
+            for (BlockLocation block : blocks) {
+                for (String host : block.getHosts()) {
+                    Long bytes = bytesByHost.get(host);
+                    bytesByHost.put(host, (bytes == null ? 0L : bytes.longValue()) + block.getLength());
+                }
+            }
+        }
+        List<String> hosts = new ArrayList<String>(bytesByHost.keySet());
+        Collections.sort(hosts, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long diff = bytesByHost.get(b).longValue() - bytesByHost.get(a).longValue();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : a.compareTo(b));
+            }
+        });
+        if (hosts.size() > maxHosts) {
+            hosts = hosts.subList(0, Math.max(1, maxHosts));
+        }
+        return hosts.toArray(new String[hosts.size()]);
+    }
+
+    /**
+     * Describe the largest split against the total: its share of the job's critical path, since documents are never
+     * split further
+     */
+    static String describeCriticalPath(InputSplit[] splits) throws IOException {
+        if (splits.length == 0) {
+            return "no splits";
+        }
+        long largest = 0;
+        long total = 0;
+        for (InputSplit split : splits) {
+            largest = Math.max(largest, split.getLength());
+            total += split.getLength();
+        }
+        return String.format("largest split %d bytes, %.1f times the mean of %d splits totalling %d bytes", largest,
+                total == 0 ? 1.0 : largest * (double) splits.length / total, splits.length, total);
+    }
+
+    /**
+     * Map each host holding a block of the file to its rack. File systems without rack information get the default
+     * rack.
+     */
+    static Map<String, String> racksByHost(BlockLocation[] blocks) throws IOException {
+        Map<String, String> racks = new HashMap<String, String>();
+        if (blocks == null) {
+            return racks;
+        }
+        for (BlockLocation block : blocks) {
+            String[] hosts = block.getHosts();
+            String[] topologyPaths = block.getTopologyPaths();
+            for (int i = 0; i < hosts.length; i++) {
+                if (topologyPaths.length == hosts.length) {
+                    // the topology paths have the host name as the last component
+                    racks.put(hosts[i], new NodeBase(topologyPaths[i]).getNetworkLocation());
+                } else {
+                    racks.put(hosts[i], NetworkTopology.DEFAULT_RACK);
+                }
+            }
+        }
+        return racks;
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Reads uncompressed local documents by memory mapping them. The document is copied once, from the mapping straight
+ * into the value's own array (by feeding Text.readFields a length header, the prefix and then the mapped bytes), where
+ * the stream path copies it from the file into the read buffer and again into the value.
+ *
+ * Nothing refers to a mapping once its document is copied, so it is released straight away where the JVM allows it
+ * (through the buffer's cleaner) rather than when the buffer is next garbage collected. A reader therefore holds at
+ * most one live mapping, of at most docinput.max.document.size bytes; on JVMs that deny access to the cleaner, mappings
+ * stay live until collected, as any MappedByteBuffer does.
+ */
+final class MappedDocuments {
+
+    private MappedDocuments() {
+    }
+
+    /**
+     * @return the local file behind the path, or null if the file system isn't local
+     */
+    static File localFile(FileSystem fs, Path path) {
+        if (fs instanceof LocalFileSystem) {
+            return ((LocalFileSystem) fs).pathToFile(path);
+        } else if (fs instanceof RawLocalFileSystem) {
+            return ((RawLocalFileSystem) fs).pathToFile(path);
+        }
+        return null;
+    }
+
+    /**
+     * Set value to prefix followed by the contents of the file
+     * @param file
+     * @param prefix
+     * @param maxSize largest allowed file size
+     * @param value
+     * @return the size of the file, or -1 if it is larger than maxSize (value is then unchanged)
+     * @throws IOException
+     */
+    static long read(File file, byte[] prefix, long maxSize, Text value) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > maxSize || size + prefix.length > DocumentBuffer.MAX_ARRAY_SIZE) {
+                return -1;
+            }
+            DataOutputBuffer header = new DataOutputBuffer();
+            WritableUtils.writeVInt(header, (int) size + prefix.length);
+            header.write(prefix);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            try {
+                InputStream document = new SequenceInputStream(
+                        new ByteArrayInputStream(header.getData(), 0, header.getLength()),
+                        new ByteBufferInputStream(mapped));
+                value.readFields(new DataInputStream(document));
+            } finally {
+                unmap(mapped);
+            }
+            return size;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Release a mapping now rather than when it is garbage collected. The buffer must not be used afterwards.
+     * @return false if the JVM doesn't allow it, and the mapping stays until the buffer is collected
+     */
+    static boolean unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner == null) {
+                return false;
+            }
+            cleaner.getClass().getMethod("clean").invoke(cleaner);
+            return true;
+        } catch (Exception e) {
+            // not a HotSpot style direct buffer, or the cleaner is out of reach
+            return false;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Reads an uncompressed document as concurrent positioned reads of its byte ranges, straight into the document
+ * buffer. Each thread opens its own stream on the file and takes ranges in order until none are left, so stores whose
+ * streams serialize positioned reads (such as s3n) still fetch the ranges in parallel. The threads are started with the
+ * first read and reused for the documents that follow until close, so a record reader working through many documents
+ * doesn't pay for a new pool each time.
+ */
+final class RangeReads implements Closeable {
+
+    private final long rangeSize;
+    private final int nThreads;
+    private ExecutorService pool = null;
+
+    RangeReads(long rangeSize, int nThreads) {
+        this.rangeSize = rangeSize;
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    /**
+     * Append length bytes of file to buffer
+     * @param fs
+     * @param file
+     * @param length
+     * @param buffer
+     * @throws IOException
+     */
+    void read(final FileSystem fs, final Path file, final long length, DocumentBuffer buffer) throws IOException {
+        final int offset = buffer.extend(length);
+        final byte[] bytes = buffer.getBytes();
+        final int nRanges = (int) ((length + rangeSize - 1) / rangeSize);
+        final AtomicInteger nextRange = new AtomicInteger();
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(nThreads);
+        }
+        List<Future<Void>> readers = new ArrayList<Future<Void>>();
+        try {
+            for (int i = 0; i < Math.min(nThreads, nRanges); i++) {
+                readers.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        FSDataInputStream in = fs.open(file);
+                        try {
+                            for (int range = nextRange.getAndIncrement(); range < nRanges;
+                                    range = nextRange.getAndIncrement()) {
+                                long position = range * rangeSize;
+                                int len = (int) Math.min(rangeSize, length - position);
+                                in.readFully(position, bytes, offset + (int) position, len);
+                            }
+                        } finally {
+                            in.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> reader : readers) {
+                reader.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading " + file);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // stop the other threads early when one fails; a no-op once they're all done
+            nextRange.set(nRanges);
+            for (Future<Void> reader : readers) {
+                reader.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InvalidInputException;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * Split planning for the document input formats on a bounded pool of threads: input globs are expanded and
+ * directories listed concurrently (a level of the tree at a time), and the block locations of the files are looked up
+ * concurrently, where FileInputFormat does each one after the other.
+ */
+@SuppressWarnings("deprecation")
+final class SplitPlanner {
+    private static final PathFilter HIDDEN_FILE_FILTER = new PathFilter() {
+        @Override
+        public boolean accept(Path p) {
+            String name = p.getName();
+            return !name.startsWith("_") && !name.startsWith(".");
+        }
+    };
+
+    private SplitPlanner() {
+    }
+
+    /**
+     * List the job's input like FileInputFormat.listStatus, skipping hidden files and applying the job's input path
+     * filter
+     * @param job
+     * @param recursive if true, list the files in subdirectories of the input directories rather than the
+     * subdirectories themselves
+     * @param nThreads
+     * @return the input files (and, unless recursive, directories inside input directories)
+     * @throws IOException
+     */
+    static FileStatus[] listStatus(final JobConf job, boolean recursive, int nThreads) throws IOException {
+        Path[] inputs = FileInputFormat.getInputPaths(job);
+        if (inputs.length == 0) {
+            throw new IOException("No input paths specified in job");
+        }
+        final PathFilter userFilter = FileInputFormat.getInputPathFilter(job);
+        final PathFilter filter = userFilter == null ? HIDDEN_FILE_FILTER : new PathFilter() {
+            @Override
+            public boolean accept(Path p) {
+                return HIDDEN_FILE_FILTER.accept(p) && userFilter.accept(p);
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, nThreads));
+        try {
+            List<Callable<FileStatus[]>> globs = new ArrayList<Callable<FileStatus[]>>();
+            for (final Path input : inputs) {
+                globs.add(new Callable<FileStatus[]>() {
+                    @Override
+                    public FileStatus[] call() throws IOException {
+                        return input.getFileSystem(job).globStatus(input, filter);
+                    }
+                });
+            }
+            List<FileStatus> files = new ArrayList<FileStatus>();
+            List<FileStatus> dirs = new ArrayList<FileStatus>();
+            List<IOException> errors = new ArrayList<IOException>();
+            List<FileStatus[]> matches = invokeAll(pool, globs);
+            for (int i = 0; i < inputs.length; i++) {
+                if (matches.get(i) == null) {
+                    errors.add(new IOException("Input path does not exist: " + inputs[i]));
+                } else if (matches.get(i).length == 0) {
+                    errors.add(new IOException("Input Pattern " + inputs[i] + " matches 0 files"));
+                } else {
+                    for (FileStatus match : matches.get(i)) {
+                        (match.isDir() ? dirs : files).add(match);
+                    }
+                }
+            }
+            if (!errors.isEmpty()) {
+                throw new InvalidInputException(errors);
+            }
+            while (!dirs.isEmpty()) {
+                List<Callable<FileStatus[]>> listings = new ArrayList<Callable<FileStatus[]>>();
+                for (final FileStatus dir : dirs) {
+                    listings.add(new Callable<FileStatus[]>() {
+                        @Override
+                        public FileStatus[] call() throws IOException {
+                            return dir.getPath().getFileSystem(job).listStatus(dir.getPath(), filter);
+                        }
+                    });
+                }
+                dirs = new ArrayList<FileStatus>();
+                for (FileStatus[] children : invokeAll(pool, listings)) {
+                    if (children == null) {
+                        continue;
+                    }
+                    for (FileStatus child : children) {
+                        (recursive && child.isDir() ? dirs : files).add(child);
+                    }
+                }
+            }
+            return files.toArray(new FileStatus[files.size()]);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @param job
+     * @param files
+     * @param nThreads
+     * @return the locations of all the blocks of each file
+     * @throws IOException
+     */
+    static BlockLocation[][] locate(final JobConf job, FileStatus[] files, int nThreads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, nThreads));
+        try {
+            List<Callable<BlockLocation[]>> lookups = new ArrayList<Callable<BlockLocation[]>>(files.length);
+            for (final FileStatus file : files) {
+                lookups.add(new Callable<BlockLocation[]>() {
+                    @Override
+                    public BlockLocation[] call() throws IOException {
+                        FileSystem fs = file.getPath().getFileSystem(job);
+                        return fs.getFileBlockLocations(file, 0, file.getLen());
+                    }
+                });
+            }
+            List<BlockLocation[]> locations = invokeAll(pool, lookups);
+            return locations.toArray(new BlockLocation[locations.size()][]);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> List<T> invokeAll(ExecutorService pool, List<Callable<T>> tasks) throws IOException {
+        try {
+            List<T> results = new ArrayList<T>(tasks.size());
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted planning splits");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
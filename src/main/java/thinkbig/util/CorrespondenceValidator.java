@@ -0,0 +1,414 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Validates the 1-1 correspondence between input and output files described in
+ * Util.validateInputOutput1_1Correspondence (every input file input/a/b/f must have an output file output/a/b/g,
+ * file names may differ) over two streams of keys, without holding the key lists in memory.
+ *
+ * validateSorted does a merge join of sorted streams, holding only the directories around the current keys.
+ * validate accepts streams in any order: it counts files per directory in a hash table, and once more than
+ * maxDirectoriesInMemory directories are held it spills the partial counts to temporary files, partitioned by
+ * directory, and joins them one partition at a time.
+ *
+ * Either way the result is a Report of the mismatches (missing and orphan outputs, per directory) rather than a bare
+ * true or false.
+ *
+ */
+public class CorrespondenceValidator
+{
+	public static final int DEFAULT_MAX_DIRECTORIES_IN_MEMORY = 1000000;
+	public static final int DEFAULT_MAX_REPORTED = 1000;
+	private static final int SPILL_PARTITIONS = 64;
+
+	private final String iPath;
+	private final String oPath;
+	private int maxDirectoriesInMemory = DEFAULT_MAX_DIRECTORIES_IN_MEMORY;
+	private int maxReported = DEFAULT_MAX_REPORTED;
+	private File spillDir = null;
+
+	/**
+	 * @param iPath top level input folder, e.g. input
+	 * @param oPath top level output folder, e.g. output
+	 */
+	public CorrespondenceValidator(String iPath, String oPath) {
+		this.iPath = iPath;
+		this.oPath = oPath;
+	}
+
+	/**
+	 * spill to disk once more than this many directories are counted in memory
+	 * @param maxDirectoriesInMemory
+	 * @return this validator
+	 */
+	public CorrespondenceValidator setMaxDirectoriesInMemory(int maxDirectoriesInMemory) {
+		this.maxDirectoriesInMemory = maxDirectoriesInMemory;
+		return this;
+	}
+
+	/**
+	 * report at most this many mismatched directories and invalid keys (all are counted)
+	 * @param maxReported
+	 * @return this validator
+	 */
+	public CorrespondenceValidator setMaxReported(int maxReported) {
+		this.maxReported = maxReported;
+		return this;
+	}
+
+	/**
+	 * directory for spill files (default: java.io.tmpdir)
+	 * @param spillDir
+	 * @return this validator
+	 */
+	public CorrespondenceValidator setSpillDir(File spillDir) {
+		this.spillDir = spillDir;
+		return this;
+	}
+
+	/**
+	 * Validate key streams that are both sorted (as S3 listings and Util.getAllFiles are). A directory's counts are
+	 * final as soon as both streams have moved past it, so only the directories enclosing the current keys are held.
+	 * @param iFiles input files, sorted
+	 * @param oFiles output files, sorted
+	 * @return the report
+	 * @throws IllegalArgumentException if a stream turns out not to be sorted
+	 */
+	public Report validateSorted(Iterator<String> iFiles, Iterator<String> oFiles) {
+		Report report = new Report(maxReported);
+		Cursor in = new Cursor(iFiles, iPath, true, report);
+		Cursor out = new Cursor(oFiles, oPath, false, report);
+		Map<String, long[]> open = new HashMap<String, long[]>();
+		while (in.current != null || out.current != null) {
+			Cursor next = out.current == null || in.current != null && in.current.compareTo(out.current) <= 0 ? in
+					: out;
+			String relative = next.current;
+			add(open, relative.substring(0, relative.lastIndexOf('/')), next.input ? 0 : 1, 1);
+			next.advance();
+			// nothing before the frontier is still to come
+			String frontier = in.current == null ? out.current : out.current == null ? in.current
+					: in.current.compareTo(out.current) <= 0 ? in.current : out.current;
+			for (Iterator<Map.Entry<String, long[]>> it = open.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<String, long[]> entry = it.next();
+				if (frontier == null || !frontier.startsWith(entry.getKey() + "/")) {
+					report.addDirectory(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+					it.remove();
+				}
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * Validate key streams in any order
+	 * @param iFiles input files
+	 * @param oFiles output files
+	 * @return the report
+	 * @throws IOException if spilling fails
+	 */
+	public Report validate(Iterator<String> iFiles, Iterator<String> oFiles) throws IOException {
+		Report report = new Report(maxReported);
+		Spill spill = new Spill();
+		try {
+			Map<String, long[]> counts = new HashMap<String, long[]>();
+			count(iFiles, iPath, 0, counts, spill, report);
+			count(oFiles, oPath, 1, counts, spill, report);
+			if (spill.files == null) {
+				addDirectories(counts, report);
+				return report;
+			}
+			spill.write(counts);
+			spill.closeOutputs();
+			for (File file : spill.files) {
+				counts.clear();
+				DataInputStream partition = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try {
+					for (;;) {
+						String dir;
+						try {
+							dir = partition.readUTF();
+						} catch (EOFException e) {
+							break;
+						}
+						add(counts, dir, 0, partition.readLong());
+						add(counts, dir, 1, partition.readLong());
+					}
+				} finally {
+					partition.close();
+				}
+				addDirectories(counts, report);
+			}
+			return report;
+		} finally {
+			spill.delete();
+		}
+	}
+
+	private void count(Iterator<String> files, String top, int side, Map<String, long[]> counts, Spill spill,
+			Report report) throws IOException {
+		while (files.hasNext()) {
+			String file = files.next();
+			String dir = directory(file, top);
+			if (dir == null) {
+				report.addInvalid(file, side == 0);
+				continue;
+			}
+			if (side == 0) {
+				report.inputs++;
+			} else {
+				report.outputs++;
+			}
+			add(counts, dir, side, 1);
+			if (counts.size() > maxDirectoriesInMemory) {
+				spill.write(counts);
+				counts.clear();
+			}
+		}
+	}
+
+	private static void add(Map<String, long[]> counts, String dir, int side, long n) {
+		long[] c = counts.get(dir);
+		if (c == null) {
+			c = new long[2];
+			counts.put(dir, c);
+		}
+		c[side] += n;
+	}
+
+	private static void addDirectories(Map<String, long[]> counts, Report report) {
+		for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+			report.addDirectory(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+		}
+	}
+
+	/**
+	 * the directory of the file relative to the top level folder (e.g. /2011/08/01 for input/2011/08/01/f.txt), or null
+	 * if the file isn't under that folder
+	 */
+	static String directory(String file, String top) {
+		String relative = relativePath(file, top);
+		return relative == null ? null : relative.substring(0, relative.lastIndexOf('/'));
+	}
+
+	private static String relativePath(String file, String top) {
+		if (file.indexOf('/') != top.length() || !file.startsWith(top)) {
+			return null;
+		}
+		return file.substring(top.length());
+	}
+
+	/**
+	 * position in a sorted stream: the path, relative to the top level folder, of the next valid file
+	 */
+	private static class Cursor {
+		private final Iterator<String> files;
+		private final String top;
+		private final boolean input;
+		private final Report report;
+		String current = null;
+
+		Cursor(Iterator<String> files, String top, boolean input, Report report) {
+			this.files = files;
+			this.top = top;
+			this.input = input;
+			this.report = report;
+			advance();
+		}
+
+		void advance() {
+			String previous = current;
+			current = null;
+			while (current == null && files.hasNext()) {
+				String file = files.next();
+				current = relativePath(file, top);
+				if (current == null) {
+					report.addInvalid(file, input);
+				}
+			}
+			if (current == null) {
+				return;
+			}
+			if (previous != null && current.compareTo(previous) < 0) {
+				throw new IllegalArgumentException((input ? "Input" : "Output") + " files aren't sorted: " + top
+						+ current + " after " + top + previous);
+			}
+			if (input) {
+				report.inputs++;
+			} else {
+				report.outputs++;
+			}
+		}
+	}
+
+	/**
+	 * partial counts spilled to disk, partitioned by directory
+	 */
+	private class Spill {
+		File[] files = null;
+		DataOutputStream[] outputs = null;
+
+		void write(Map<String, long[]> counts) throws IOException {
+			if (files == null) {
+				files = new File[SPILL_PARTITIONS];
+				outputs = new DataOutputStream[SPILL_PARTITIONS];
+				for (int i = 0; i < SPILL_PARTITIONS; i++) {
+					files[i] = File.createTempFile("correspondence", ".spill", spillDir);
+					outputs[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[i])));
+				}
+			}
+			for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+				DataOutputStream out = outputs[(entry.getKey().hashCode() & Integer.MAX_VALUE) % SPILL_PARTITIONS];
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue()[0]);
+				out.writeLong(entry.getValue()[1]);
+			}
+		}
+
+		void closeOutputs() throws IOException {
+			if (outputs != null) {
+				for (int i = 0; i < outputs.length; i++) {
+					if (outputs[i] != null) {
+						outputs[i].close();
+						outputs[i] = null;
+					}
+				}
+			}
+		}
+
+		void delete() {
+			try {
+				closeOutputs();
+			} catch (IOException e) {
+			}
+			if (files != null) {
+				for (File file : files) {
+					if (file != null) {
+						file.delete();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The result of a validation
+	 */
+	public static class Report
+	{
+		private final int maxReported;
+		private long inputs = 0;
+		private long outputs = 0;
+		private long missingOutputs = 0;
+		private long orphanOutputs = 0;
+		private long mismatchedDirectories = 0;
+		private long invalidInputs = 0;
+		private long invalidOutputs = 0;
+		private final SortedMap<String, long[]> mismatches = new TreeMap<String, long[]>();
+		private final List<String> invalid = new ArrayList<String>();
+
+		Report(int maxReported) {
+			this.maxReported = maxReported;
+		}
+
+		void addDirectory(String dir, long in, long out) {
+			if (in == out) {
+				return;
+			}
+			missingOutputs += Math.max(0, in - out);
+			orphanOutputs += Math.max(0, out - in);
+			mismatchedDirectories++;
+			mismatches.put(dir, new long[] { in, out });
+			if (mismatches.size() > maxReported) {
+				// keep the first directories in sort order
+				mismatches.remove(mismatches.lastKey());
+			}
+		}
+
+		void addInvalid(String file, boolean input) {
+			if (input) {
+				invalidInputs++;
+			} else {
+				invalidOutputs++;
+			}
+			if (invalid.size() < maxReported) {
+				invalid.add(file);
+			}
+		}
+
+		/** @return true if there is a 1-1 correspondence between the input files and the output files */
+		public boolean isValid() {
+			return mismatchedDirectories == 0 && invalidInputs == 0 && invalidOutputs == 0;
+		}
+
+		public long getInputs() {
+			return inputs;
+		}
+
+		public long getOutputs() {
+			return outputs;
+		}
+
+		/** number of input files without an output file */
+		public long getMissingOutputs() {
+			return missingOutputs;
+		}
+
+		/** number of output files without an input file */
+		public long getOrphanOutputs() {
+			return orphanOutputs;
+		}
+
+		public long getMismatchedDirectoryCount() {
+			return mismatchedDirectories;
+		}
+
+		/** input and output file counts of the (first maxReported) mismatched directories */
+		public SortedMap<String, long[]> getMismatchedDirectories() {
+			return Collections.unmodifiableSortedMap(mismatches);
+		}
+
+		public long getInvalidInputs() {
+			return invalidInputs;
+		}
+
+		public long getInvalidOutputs() {
+			return invalidOutputs;
+		}
+
+		/** the (first maxReported) files that weren't under the input or output folder */
+		public List<String> getInvalidFiles() {
+			return Collections.unmodifiableList(invalid);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(inputs).append(" inputs, ").append(outputs).append(" outputs, ").append(missingOutputs)
+				.append(" missing outputs, ").append(orphanOutputs).append(" orphan outputs in ")
+				.append(mismatchedDirectories).append(" directories, ").append(invalidInputs + invalidOutputs)
+				.append(" invalid files");
+			for (Map.Entry<String, long[]> entry : mismatches.entrySet()) {
+				sb.append("\n ").append(entry.getKey()).append(": ").append(entry.getValue()[0]).append(" inputs, ")
+					.append(entry.getValue()[1]).append(" outputs");
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-thread caches of date formatters and calendars. SimpleDateFormat and Calendar are expensive to build and not
+ * thread safe, so each thread gets its own, built once per pattern. What these methods return belongs to the calling
+ * thread and must not be handed to other threads or reconfigured.
+ *
+ * Formatters for patterns with a time zone (z, Z or X) aren't cached: parsing a zoned date sets the formatter's time
+ * zone to the one parsed, which would otherwise carry over to later parses and formats with the same pattern.
+ *
+ */
+final class DateFormats
+{
+	private static final ThreadLocal<Map<String, DateFormat>> formats = new ThreadLocal<Map<String, DateFormat>>() {
+		@Override
+		protected Map<String, DateFormat> initialValue() {
+			return new HashMap<String, DateFormat>();
+		}
+	};
+
+	private static final ThreadLocal<Calendar> calendars = new ThreadLocal<Calendar>() {
+		@Override
+		protected Calendar initialValue() {
+			return Calendar.getInstance();
+		}
+	};
+
+	private DateFormats() {
+	}
+
+	/**
+	 * the calling thread's formatter for the pattern
+	 * @param pattern SimpleDateFormat pattern
+	 * @return
+	 */
+	static DateFormat get(String pattern) {
+		if (hasTimeZone(pattern)) {
+			return new SimpleDateFormat(pattern);
+		}
+		Map<String, DateFormat> cache = formats.get();
+		DateFormat format = cache.get(pattern);
+		if (format == null) {
+			format = new SimpleDateFormat(pattern);
+			cache.put(pattern, format);
+		}
+		return format;
+	}
+
+	// whether the pattern has a time zone field, outside quoted text
+	private static boolean hasTimeZone(String pattern) {
+		boolean quoted = false;
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '\'') {
+				quoted = !quoted;
+			} else if (!quoted && (c == 'z' || c == 'Z' || c == 'X')) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * the calling thread's calendar, set to the date
+	 * @param date
+	 * @return
+	 */
+	static Calendar calendar(Date date) {
+		Calendar calendar = calendars.get();
+		calendar.setTime(date);
+		return calendar;
+	}
+
+	/**
+	 * add an amount of a calendar field (e.g. Calendar.DATE) to a date
+	 * @param date
+	 * @param field
+	 * @param amount
+	 * @return the new date
+	 */
+	static Date add(Date date, int field, int amount) {
+		Calendar calendar = calendar(date);
+		calendar.add(field, amount);
+		return calendar.getTime();
+	}
+}
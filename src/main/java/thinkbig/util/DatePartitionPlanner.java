@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Plans the listing of date partitioned data. A path template marks the date part of the path with a
+ * SimpleDateFormat pattern in braces, e.g. input/{yyyy/MM/dd}/ or s3n://bucket/logs/dt={yyyy-MM-dd}/, and the
+ * planner generates just the partitions of a date range from it, so that only those are listed instead of the whole
+ * tree.
+ *
+ * Partitions are generated a day at a time, or an hour or minute at a time if the pattern has hours or minutes, and
+ * coarser patterns (e.g. yyyy/MM) collapse to one partition per month. Generated partitions that don't exist are
+ * simply empty.
+ *
+ */
+public class DatePartitionPlanner
+{
+	private final String prefix;
+	private final String pattern;
+	private final String suffix;
+	private final int step;
+
+	/**
+	 * @param template path with the date pattern in braces, e.g. input/{yyyy/MM/dd}/
+	 */
+	public DatePartitionPlanner(String template) {
+		int open = template.indexOf('{');
+		int close = template.indexOf('}', open + 1);
+		if (open < 0 || close < 0 || template.indexOf('{', open + 1) >= 0) {
+			throw new IllegalArgumentException("Template needs one date pattern in braces: " + template);
+		}
+		prefix = template.substring(0, open);
+		pattern = template.substring(open + 1, close);
+		suffix = template.substring(close + 1);
+		step = step(pattern);
+	}
+
+	// the finest calendar field in the pattern, ignoring quoted text
+	private static int step(String pattern) {
+		String fields = pattern.replaceAll("'[^']*'", "");
+		if (fields.indexOf('m') >= 0) {
+			return Calendar.MINUTE;
+		} else if (fields.matches(".*[HkKh].*")) {
+			return Calendar.HOUR_OF_DAY;
+		}
+		return Calendar.DATE;
+	}
+
+	/**
+	 * the partitions from start to end, inclusive
+	 * @param start
+	 * @param end
+	 * @return partition paths in date order, without duplicates
+	 */
+	public List<String> getPartitions(Date start, Date end) {
+		if (start.after(end)) {
+			return new ArrayList<String>();
+		}
+		DateFormat format = DateFormats.get(pattern);
+		Set<String> partitions = new LinkedHashSet<String>();
+		StringBuilder sb = new StringBuilder(prefix);
+		for (Date date = start; !date.after(end); date = DateFormats.add(date, step, 1)) {
+			sb.setLength(prefix.length());
+			partitions.add(sb.append(format.format(date)).append(suffix).toString());
+		}
+		// the end's partition, in case the last step went past it
+		partitions.add(prefix + format.format(end) + suffix);
+		return new ArrayList<String>(partitions);
+	}
+
+	/**
+	 * the partitions from start to end, inclusive
+	 * @param start
+	 * @param end
+	 * @param dateFormat format of start and end, e.g. yyyy-MM-dd
+	 * @return partition paths in date order, without duplicates
+	 * @throws ParseException
+	 */
+	public List<String> getPartitions(String start, String end, String dateFormat) throws ParseException {
+		DateFormat format = DateFormats.get(dateFormat);
+		return getPartitions(format.parse(start), format.parse(end));
+	}
+
+	/**
+	 * Recursively enumerate the files in the partitions from start to end, listing up to nThreads directories at a
+	 * time, across partitions
+	 * @param fs
+	 * @param start
+	 * @param end
+	 * @param nThreads
+	 * @param visitor
+	 * @throws IOException
+	 */
+	public void listFiles(FileSystem fs, Date start, Date end, int nThreads, DirectoryWalker.Visitor visitor)
+			throws IOException {
+		List<Path> roots = new ArrayList<Path>();
+		for (String partition : getPartitions(start, end)) {
+			roots.add(new Path(partition));
+		}
+		new DirectoryWalker(fs, nThreads).walk(roots, visitor);
+	}
+
+	/**
+	 * Recursively enumerate the files in the partitions from start to end
+	 * @param fs
+	 * @param start
+	 * @param end
+	 * @param nThreads
+	 * @return paths of the files, sorted
+	 * @throws IOException
+	 */
+	public List<String> listFiles(FileSystem fs, Date start, Date end, int nThreads) throws IOException {
+		final List<String> files = new ArrayList<String>();
+		listFiles(fs, start, end, nThreads, new DirectoryWalker.Visitor() {
+			@Override
+			public void visit(FileStatus file) {
+				files.add(file.getPath().toString());
+			}
+		});
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * List the keys in the partitions from start to end directly from S3, listing up to nThreads partitions at a
+	 * time. The template is a key template (e.g. input/{yyyy/MM/dd}/) and every partition is a key prefix, so it
+	 * should end with a / unless prefix matches are wanted.
+	 * @param s3
+	 * @param bucketName
+	 * @param start
+	 * @param end
+	 * @param nThreads
+	 * @return keys, sorted
+	 */
+	public List<String> listKeys(final AmazonS3 s3, final String bucketName, Date start, Date end, int nThreads) {
+		List<String> partitions = getPartitions(start, end);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(nThreads, partitions.size())));
+		try {
+			List<Future<List<String>>> listings = new ArrayList<Future<List<String>>>();
+			for (final String partition : partitions) {
+				listings.add(pool.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() {
+						List<String> keys = new ArrayList<String>();
+						for (S3ObjectSummary summary : Util.listObjects(s3, bucketName, partition, null)) {
+							keys.add(summary.getKey());
+						}
+						return keys;
+					}
+				}));
+			}
+			List<String> keys = new ArrayList<String>();
+			for (Future<List<String>> listing : listings) {
+				keys.addAll(listing.get());
+			}
+			Collections.sort(keys);
+			return keys;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Recursively enumerates the files under a directory, listing up to a fixed number of directories at a time.
+ * Directory-ness comes from the listing itself, so there is one listStatus call per directory and nothing per file.
+ * Every file is reported once, even if it is reached twice, and files can be filtered by a glob on their name and by
+ * size before they are reported.
+ *
+ * Files are handed to a Visitor as they are found rather than collected, so a tree of millions of files doesn't have
+ * to be held in memory. Visits happen one at a time, so the visitor needn't be thread safe.
+ *
+ */
+public class DirectoryWalker
+{
+	/** number of directories listed concurrently by Util.enumerateDistributedFiles */
+	public static final String LISTING_THREADS = "thinkbig.listing.threads";
+	public static final int DEFAULT_LISTING_THREADS = 10;
+
+	/**
+	 * Receives the files found by a walk
+	 */
+	public interface Visitor {
+		void visit(FileStatus file) throws IOException;
+	}
+
+	private final FileSystem fs;
+	private final int parallelism;
+	private Pattern nameGlob = null;
+	private long minSize = 0;
+	private long maxSize = Long.MAX_VALUE;
+
+	/**
+	 * @param fs file system to walk
+	 * @param parallelism maximum number of directories listed at once
+	 */
+	public DirectoryWalker(FileSystem fs, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+		this.fs = fs;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * only report files whose name matches the glob (*, ?, [...] and {a,b} are supported)
+	 * @param glob
+	 * @return this walker
+	 */
+	public DirectoryWalker setNameGlob(String glob) {
+		nameGlob = glob == null ? null : Pattern.compile(globToRegex(glob));
+		return this;
+	}
+
+	/**
+	 * only report files of at least minSize and at most maxSize bytes
+	 * @param minSize
+	 * @param maxSize
+	 * @return this walker
+	 */
+	public DirectoryWalker setSizeRange(long minSize, long maxSize) {
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		return this;
+	}
+
+	/**
+	 * Walk the tree under root, reporting every matching file to the visitor
+	 * @param root directory (or file) to enumerate
+	 * @param visitor
+	 * @throws IOException the first failure of a listing or of the visitor, after which the walk stops
+	 */
+	public void walk(Path root, Visitor visitor) throws IOException {
+		walk(Collections.singletonList(root), visitor);
+	}
+
+	/**
+	 * Walk the trees under several roots at once, sharing the listing threads between them, reporting every
+	 * matching file to the visitor once
+	 * @param roots directories (or files) to enumerate
+	 * @param visitor
+	 * @throws IOException the first failure of a listing or of the visitor, after which the walk stops
+	 */
+	public void walk(Collection<Path> roots, Visitor visitor) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "DirectoryWalker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			new Walk(pool, visitor).run(roots);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Walk the tree under root, collecting the matching files
+	 * @param root
+	 * @return paths of all matching files, sorted
+	 * @throws IOException
+	 */
+	public List<String> list(Path root) throws IOException {
+		final List<String> files = new ArrayList<String>();
+		walk(root, new Visitor() {
+			@Override
+			public void visit(FileStatus file) {
+				files.add(file.getPath().toString());
+			}
+		});
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * State of a single walk. Listings run concurrently; everything else happens holding the walk's lock.
+	 */
+	private class Walk {
+		private final ExecutorService pool;
+		private final Visitor visitor;
+		private final Set<String> seenFiles = new HashSet<String>();
+		private final Set<String> seenDirs = new HashSet<String>();
+		private int pending = 0;
+		private Throwable failure = null;
+
+		Walk(ExecutorService pool, Visitor visitor) {
+			this.pool = pool;
+			this.visitor = visitor;
+		}
+
+		synchronized void run(Collection<Path> roots) throws IOException {
+			for (Path root : roots) {
+				if (seenDirs.add(root.toString())) {
+					submit(root);
+				}
+			}
+			try {
+				while (pending > 0 && failure == null) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure = e;
+			}
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			} else if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			} else if (failure != null) {
+				throw new IOException(failure.toString());
+			}
+		}
+
+		// call holding the lock
+		private void submit(final Path dir) {
+			pending++;
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					list(dir);
+				}
+			});
+		}
+
+		private void list(Path dir) {
+			try {
+				FileStatus[] statuses;
+				try {
+					statuses = fs.listStatus(dir);
+				} catch (FileNotFoundException e) {
+					// some file systems (e.g. s3n) throw for missing directories rather than returning null
+					statuses = null;
+				}
+				if (statuses == null) {
+					return;
+				}
+				synchronized (this) {
+					for (FileStatus status : statuses) {
+						if (failure != null) {
+							return;
+						}
+						String path = status.getPath().toString();
+						if (status.isDir()) {
+							if (seenDirs.add(path)) {
+								submit(status.getPath());
+							}
+						} else if (accept(status) && seenFiles.add(path)) {
+							visitor.visit(status);
+						}
+					}
+				}
+			} catch (Throwable t) {
+				synchronized (this) {
+					if (failure == null) {
+						failure = t;
+					}
+				}
+			} finally {
+				synchronized (this) {
+					pending--;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private boolean accept(FileStatus status) {
+		return status.getLen() >= minSize && status.getLen() <= maxSize
+				&& (nameGlob == null || nameGlob.matcher(status.getPath().getName()).matches());
+	}
+
+	/**
+	 * convert a file name glob to a regular expression
+	 * @param glob
+	 * @return the equivalent regular expression
+	 */
+	static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		boolean inGroup = false;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			switch (c) {
+			case '*':
+				regex.append(".*");
+				break;
+			case '?':
+				regex.append('.');
+				break;
+			case '[':
+				int end = glob.indexOf(']', i + 1);
+				if (end < 0) {
+					regex.append("\\[");
+				} else {
+					String set = glob.substring(i + 1, end);
+					regex.append('[');
+					if (set.startsWith("!")) {
+						regex.append('^');
+						set = set.substring(1);
+					}
+					regex.append(set.replace("\\", "\\\\")).append(']');
+					i = end;
+				}
+				break;
+			case '{':
+				inGroup = true;
+				regex.append("(?:");
+				break;
+			case '}':
+				if (inGroup) {
+					inGroup = false;
+					regex.append(')');
+				} else {
+					regex.append("\\}");
+				}
+				break;
+			case ',':
+				regex.append(inGroup ? "|" : ",");
+				break;
+			case '\\':
+				appendLiteral(regex, i + 1 < glob.length() ? glob.charAt(++i) : c);
+				break;
+			default:
+				appendLiteral(regex, c);
+			}
+		}
+		if (inGroup) {
+			throw new IllegalArgumentException("Unterminated group in glob " + glob);
+		}
+		return regex.toString();
+	}
+
+	private static void appendLiteral(StringBuilder regex, char c) {
+		if ("\\.^$|()+[]{}*?".indexOf(c) >= 0) {
+			regex.append('\\');
+		}
+		regex.append(c);
+	}
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.PropertiesCredentials;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+
+/**
+ * Process-wide registry of shared S3 clients, one per credentials file, endpoint and settings. The clients are
+ * thread safe and keep their HTTP connection pools, so repeated lookups don't pay for new connections and TLS
+ * handshakes.
+ *
+ * Retries are done by the registry's clients themselves, with exponential backoff, so that they can be counted:
+ * every client has Stats of its requests, retries, failures and latency.
+ *
+ */
+public class S3ClientRegistry
+{
+	private static final Map<String, AmazonS3> clients = new HashMap<String, AmazonS3>();
+	private static final Map<AmazonS3, Stats> stats = new HashMap<AmazonS3, Stats>();
+
+	private S3ClientRegistry() {
+	}
+
+	/**
+	 * get the shared client for the credentials file, with default settings
+	 * @param credentialFile AWS credential properties file
+	 * @return
+	 * @throws IOException if the credentials can't be read
+	 */
+	public static AmazonS3 getClient(String credentialFile) throws IOException {
+		return getClient(credentialFile, new Settings());
+	}
+
+	/**
+	 * get the shared client for the credentials file and settings
+	 * @param credentialFile AWS credential properties file
+	 * @param settings
+	 * @return
+	 * @throws IOException if the credentials can't be read
+	 */
+	public static AmazonS3 getClient(String credentialFile, Settings settings) throws IOException {
+		File file = new File(credentialFile).getCanonicalFile();
+		String key = file.getPath() + "|" + settings;
+		synchronized (clients) {
+			AmazonS3 client = clients.get(key);
+			if (client == null) {
+				ClientConfiguration config = new ClientConfiguration();
+				config.setMaxConnections(settings.maxConnections);
+				config.setConnectionTimeout(settings.connectionTimeout);
+				config.setSocketTimeout(settings.socketTimeout);
+				// retries are ours, so that they're counted
+				config.setMaxErrorRetry(0);
+				AmazonS3Client s3 = new AmazonS3Client(new PropertiesCredentials(file), config);
+				if (settings.endpoint != null) {
+					s3.setEndpoint(settings.endpoint);
+				}
+				Stats clientStats = new Stats();
+				client = retrying(s3, settings, clientStats);
+				clients.put(key, client);
+				stats.put(client, clientStats);
+			}
+			return client;
+		}
+	}
+
+	/**
+	 * statistics of a client from this registry
+	 * @param client
+	 * @return null if the client isn't from this registry
+	 */
+	public static Stats getStats(AmazonS3 client) {
+		synchronized (clients) {
+			return stats.get(client);
+		}
+	}
+
+	/**
+	 * wrap a client so that its calls are retried as the settings say and counted in stats
+	 */
+	static AmazonS3 retrying(AmazonS3 s3, Settings settings, Stats stats) {
+		return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class<?>[] { AmazonS3.class },
+				new RetryingHandler(s3, settings, stats));
+	}
+
+	/**
+	 * Connection pool, timeout and retry settings of a client
+	 */
+	public static class Settings {
+		private int maxConnections = 50;
+		private int connectionTimeout = 50 * 1000;
+		private int socketTimeout = 50 * 1000;
+		private int maxRetries = 3;
+		private long baseBackoffMillis = 100;
+		private long maxBackoffMillis = 20 * 1000;
+		private String endpoint = null;
+
+		public Settings setMaxConnections(int maxConnections) {
+			this.maxConnections = maxConnections;
+			return this;
+		}
+
+		/** connection and socket timeouts, in milliseconds */
+		public Settings setTimeouts(int connectionTimeout, int socketTimeout) {
+			this.connectionTimeout = connectionTimeout;
+			this.socketTimeout = socketTimeout;
+			return this;
+		}
+
+		/** retries of a failed request, waiting baseBackoffMillis * 2^retry (at most maxBackoffMillis) before each */
+		public Settings setRetries(int maxRetries, long baseBackoffMillis, long maxBackoffMillis) {
+			this.maxRetries = maxRetries;
+			this.baseBackoffMillis = baseBackoffMillis;
+			this.maxBackoffMillis = maxBackoffMillis;
+			return this;
+		}
+
+		public Settings setEndpoint(String endpoint) {
+			this.endpoint = endpoint;
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return "maxConnections=" + maxConnections + ",connectionTimeout=" + connectionTimeout + ",socketTimeout="
+					+ socketTimeout + ",maxRetries=" + maxRetries + ",backoff=" + baseBackoffMillis + "-"
+					+ maxBackoffMillis + ",endpoint=" + endpoint;
+		}
+	}
+
+	/**
+	 * Counters of a client's calls. A call is one method call on the client, however many attempts it took.
+	 */
+	public static class Stats {
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong retries = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong latencyNanos = new AtomicLong();
+
+		public long getRequests() {
+			return requests.get();
+		}
+
+		public long getRetries() {
+			return retries.get();
+		}
+
+		public long getFailures() {
+			return failures.get();
+		}
+
+		/** total time spent in calls, retries and backoff included */
+		public long getTotalLatencyMillis() {
+			return latencyNanos.get() / 1000000;
+		}
+
+		public double getMeanLatencyMillis() {
+			long n = requests.get();
+			return n == 0 ? 0 : latencyNanos.get() / 1e6 / n;
+		}
+
+		@Override
+		public String toString() {
+			return "requests=" + getRequests() + ", retries=" + getRetries() + ", failures=" + getFailures()
+					+ ", mean latency=" + getMeanLatencyMillis() + "ms";
+		}
+	}
+
+	private static class RetryingHandler implements InvocationHandler {
+		private final AmazonS3 s3;
+		private final Settings settings;
+		private final Stats stats;
+
+		RetryingHandler(AmazonS3 s3, Settings settings, Stats stats) {
+			this.s3 = s3;
+			this.settings = settings;
+			this.stats = stats;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				if (method.getName().equals("equals")) {
+					return proxy == args[0];
+				} else if (method.getName().equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				}
+				return "S3 client (" + settings + ")";
+			}
+			long start = System.nanoTime();
+			stats.requests.incrementAndGet();
+			try {
+				for (int retry = 0;; retry++) {
+					try {
+						return method.invoke(s3, args);
+					} catch (InvocationTargetException e) {
+						Throwable cause = e.getCause();
+						if (retry >= settings.maxRetries || !isRetriable(cause) || !isRepeatable(args)) {
+							stats.failures.incrementAndGet();
+							throw cause;
+						}
+					}
+					stats.retries.incrementAndGet();
+					long backoff = Math.min(settings.maxBackoffMillis, settings.baseBackoffMillis << Math.min(retry, 30));
+					try {
+						Thread.sleep(backoff);
+					} catch (InterruptedException e) {
+						// AmazonS3 methods don't declare it, so the caller would get an UndeclaredThrowableException
+						Thread.currentThread().interrupt();
+						stats.failures.incrementAndGet();
+						throw new AmazonClientException("Interrupted while retrying " + method.getName(), e);
+					}
+				}
+			} finally {
+				stats.latencyNanos.addAndGet(System.nanoTime() - start);
+			}
+		}
+
+		private static boolean isRetriable(Throwable t) {
+			if (t instanceof AmazonServiceException) {
+				AmazonServiceException e = (AmazonServiceException) t;
+				return e.getStatusCode() >= 500 || "Throttling".equals(e.getErrorCode())
+						|| "SlowDown".equals(e.getErrorCode()) || "RequestTimeout".equals(e.getErrorCode());
+			}
+			// client side failures are network problems
+			return t instanceof AmazonClientException;
+		}
+
+		// requests that stream an upload can't be sent twice
+		private static boolean isRepeatable(Object[] args) {
+			if (args != null) {
+				for (Object arg : args) {
+					if (arg instanceof InputStream
+							|| arg instanceof PutObjectRequest && ((PutObjectRequest) arg).getInputStream() != null) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Checks whether many S3 objects exist at once, and reports all of the missing ones.
+ * 
+ * Keys are grouped by bucket and each bucket is checked only once. For a bucket with few keys to check, each key is
+ * checked with a metadata-only HEAD request, up to maxConcurrency at a time. For more keys than the listing threshold,
+ * the keys' longest common prefix is listed instead and the keys are matched against a hash set.
+ *
+ */
+public class S3ExistenceChecker
+{
+	public static final int DEFAULT_MAX_CONCURRENCY = 16;
+	public static final int DEFAULT_LISTING_THRESHOLD = 1000;
+
+	private final AmazonS3 s3;
+	private final int maxConcurrency;
+	private int listingThreshold = DEFAULT_LISTING_THRESHOLD;
+	private final Map<String, Boolean> bucketExists = new ConcurrentHashMap<String, Boolean>();
+
+	public S3ExistenceChecker(AmazonS3 s3) {
+		this(s3, DEFAULT_MAX_CONCURRENCY);
+	}
+
+	/**
+	 * @param s3
+	 * @param maxConcurrency maximum number of HEAD requests in flight
+	 */
+	public S3ExistenceChecker(AmazonS3 s3, int maxConcurrency) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be at least 1");
+		}
+		this.s3 = s3;
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	/**
+	 * check buckets with more than this many keys by listing rather than one request per key
+	 * @param listingThreshold
+	 * @return this checker
+	 */
+	public S3ExistenceChecker setListingThreshold(int listingThreshold) {
+		this.listingThreshold = listingThreshold;
+		return this;
+	}
+
+	/**
+	 * find the S3 Uris (s3://bucket//key) that don't exist; Uris that can't be parsed count as missing 
+	 * @param s3Uris
+	 * @return the missing Uris, in the order given
+	 */
+	public Set<String> findMissingUris(Collection<String> s3Uris) {
+		Set<String> missing = new LinkedHashSet<String>();
+		// bucket -> key -> uris naming it
+		Map<String, Map<String, List<String>>> byBucket = new LinkedHashMap<String, Map<String, List<String>>>();
+		for (String s3Uri : s3Uris) {
+			Matcher matcher = Util.s3UriPattern.matcher(s3Uri);
+			if (!matcher.find()) {
+				missing.add(s3Uri);
+				continue;
+			}
+			Map<String, List<String>> keys = byBucket.get(matcher.group(1));
+			if (keys == null) {
+				keys = new LinkedHashMap<String, List<String>>();
+				byBucket.put(matcher.group(1), keys);
+			}
+			List<String> uris = keys.get(matcher.group(2));
+			if (uris == null) {
+				uris = new ArrayList<String>(1);
+				keys.put(matcher.group(2), uris);
+			}
+			uris.add(s3Uri);
+		}
+		for (Map.Entry<String, Map<String, List<String>>> bucket : byBucket.entrySet()) {
+			Map<String, List<String>> keys = bucket.getValue();
+			for (String key : findMissingKeys(bucket.getKey(), keys.keySet())) {
+				missing.addAll(keys.get(key));
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * find the keys that don't exist in the bucket (all of them, if the bucket doesn't exist)
+	 * @param bucketName
+	 * @param keys
+	 * @return the missing keys, in the order given
+	 */
+	public Set<String> findMissingKeys(String bucketName, Collection<String> keys) {
+		Set<String> wanted = new LinkedHashSet<String>(keys);
+		if (wanted.isEmpty() || !bucketExists(bucketName)) {
+			return wanted;
+		}
+		if (wanted.size() > listingThreshold) {
+			return findMissingByListing(bucketName, wanted);
+		}
+		return findMissingByHead(bucketName, wanted);
+	}
+
+	/**
+	 * check if the bucket exists, remembering the answer
+	 * @param bucketName
+	 * @return
+	 */
+	public boolean bucketExists(String bucketName) {
+		Boolean exists = bucketExists.get(bucketName);
+		if (exists == null) {
+			exists = s3.doesBucketExist(bucketName);
+			bucketExists.put(bucketName, exists);
+		}
+		return exists;
+	}
+
+	private Set<String> findMissingByListing(String bucketName, Set<String> wanted) {
+		Set<String> missing = new LinkedHashSet<String>(wanted);
+		for (S3ObjectSummary summary : S3ObjectIterator.iterable(s3, bucketName, commonPrefix(wanted), null)) {
+			missing.remove(summary.getKey());
+			if (missing.isEmpty()) {
+				break;
+			}
+		}
+		return missing;
+	}
+
+	private Set<String> findMissingByHead(final String bucketName, Set<String> wanted) {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(maxConcurrency, wanted.size()));
+		try {
+			Map<String, Future<Boolean>> checks = new LinkedHashMap<String, Future<Boolean>>();
+			for (final String key : wanted) {
+				checks.put(key, pool.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return objectExists(bucketName, key);
+					}
+				}));
+			}
+			Set<String> missing = new LinkedHashSet<String>();
+			for (Map.Entry<String, Future<Boolean>> check : checks.entrySet()) {
+				if (!check.getValue().get()) {
+					missing.add(check.getKey());
+				}
+			}
+			return missing;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * check a single object with a metadata-only request
+	 * @param bucketName
+	 * @param key
+	 * @return true if it exists
+	 */
+	public boolean objectExists(String bucketName, String key) {
+		try {
+			s3.getObjectMetadata(bucketName, key);
+			return true;
+		} catch (AmazonServiceException e) {
+			if (e.getStatusCode() == 404) {
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	static String commonPrefix(Collection<String> keys) {
+		String prefix = null;
+		for (String key : keys) {
+			if (prefix == null) {
+				prefix = key;
+				continue;
+			}
+			int n = Math.min(prefix.length(), key.length());
+			int i = 0;
+			while (i < n && prefix.charAt(i) == key.charAt(i)) {
+				i++;
+			}
+			prefix = prefix.substring(0, i);
+			if (prefix.isEmpty()) {
+				break;
+			}
+		}
+		return prefix == null || prefix.isEmpty() ? null : prefix;
+	}
+}
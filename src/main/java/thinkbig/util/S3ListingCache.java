@@ -0,0 +1,507 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.util.*;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Caches listings of S3 prefixes, so that repeated checks against large, slowly changing buckets don't list
+ * everything again.
+ *
+ * Listings are kept in memory for ttlMillis, and at most maxCachedKeys keys are kept across all listings (least
+ * recently used listings are dropped first). If a snapshot directory is given, every listing is also saved there
+ * in a compact form (sorted, front coded keys with sizes and modification times) and reloaded by later processes.
+ *
+ * With a refresh depth greater than 0, an expired listing is refreshed incrementally rather than listed again:
+ * the "/" separated levels below the prefix are listed one at a time, and only new sub-folders and the greatest
+ * (newest, for date partitions like yyyy/MM/dd) existing sub-folder at each level are listed again, down to
+ * refreshDepth levels. Everything else is assumed unchanged.
+ *
+ * A cache can be shared by threads. Gets of the same prefix wait for one listing; gets of other prefixes go ahead.
+ *
+ */
+public class S3ListingCache
+{
+	private static final int SNAPSHOT_MAGIC = 0x53334c53; // "S3LS"
+	private static final int SNAPSHOT_VERSION = 1;
+	private static final String DELIMITER = "/";
+	private static final Log LOG = LogFactory.getLog(S3ListingCache.class);
+
+	private final long ttlMillis;
+	private final long maxCachedKeys;
+	private final File snapshotDir;
+	private int refreshDepth = 0;
+	private long cachedKeys = 0;
+	private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<String, Listing>(16, 0.75f, true);
+	private final Object[] prefixLocks = new Object[64];
+
+	/**
+	 * @param ttlMillis how long a listing is used before being refreshed
+	 * @param maxCachedKeys maximum number of keys held in memory
+	 * @param snapshotDir directory to save listings in, or null to keep them in memory only
+	 */
+	public S3ListingCache(long ttlMillis, long maxCachedKeys, File snapshotDir) {
+		this.ttlMillis = ttlMillis;
+		this.maxCachedKeys = maxCachedKeys;
+		this.snapshotDir = snapshotDir;
+		if (snapshotDir != null && !snapshotDir.isDirectory() && !snapshotDir.mkdirs()) {
+			throw new IllegalArgumentException("Can't create snapshot directory " + snapshotDir);
+		}
+		for (int i = 0; i < prefixLocks.length; i++) {
+			prefixLocks[i] = new Object();
+		}
+	}
+
+	/**
+	 * refresh expired listings incrementally, down to this many "/" separated levels below their prefix
+	 * (0, the default, lists expired prefixes again in full)
+	 * @param refreshDepth
+	 * @return this cache
+	 */
+	public S3ListingCache setRefreshDepth(int refreshDepth) {
+		this.refreshDepth = refreshDepth;
+		return this;
+	}
+
+	/**
+	 * get the listing of the objects under prefix, from the cache if it's fresh
+	 * @param s3
+	 * @param bucketName
+	 * @param prefix null or "" for the whole bucket
+	 * @return
+	 */
+	public Listing get(AmazonS3 s3, String bucketName, String prefix) {
+		prefix = prefix == null ? "" : prefix;
+		String id = bucketName + DELIMITER + prefix;
+		// only gets of the same prefix (or one sharing its lock) wait for each other's listing
+		synchronized (prefixLocks[(id.hashCode() & Integer.MAX_VALUE) % prefixLocks.length]) {
+			long now = System.currentTimeMillis();
+			Listing listing = cached(bucketName, prefix, id, now);
+			if (listing == null) {
+				listing = load(bucketName, prefix);
+				if (listing != null && now - listing.listedAt < ttlMillis) {
+					put(id, listing);
+					return listing;
+				}
+			}
+			if (listing == null) {
+				listing = new Listing(bucketName, prefix, now, list(s3, bucketName, prefix));
+			} else if (now - listing.listedAt >= ttlMillis) {
+				listing = refreshDepth > 0 ? refresh(s3, listing, now) :
+					new Listing(bucketName, prefix, now, list(s3, bucketName, prefix));
+			} else {
+				return listing;
+			}
+			put(id, listing);
+			save(listing);
+			return listing;
+		}
+	}
+
+	// the listing held in memory for the prefix, or the part of a fresh listing of an enclosing prefix
+	private synchronized Listing cached(String bucketName, String prefix, String id, long now) {
+		Listing listing = listings.get(id);
+		if (listing == null) {
+			for (Map.Entry<String, Listing> entry : listings.entrySet()) {
+				Listing enclosing = entry.getValue();
+				if (enclosing.bucketName.equals(bucketName) && prefix.startsWith(enclosing.prefix)
+						&& now - enclosing.listedAt < ttlMillis) {
+					return enclosing.subListing(prefix);
+				}
+			}
+		}
+		return listing;
+	}
+
+	/**
+	 * drop every cached listing, in memory and on disk
+	 */
+	public synchronized void clear() {
+		listings.clear();
+		cachedKeys = 0;
+		if (snapshotDir != null) {
+			File[] files = snapshotDir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					if (file.getName().endsWith(".snapshot")) {
+						file.delete();
+					}
+				}
+			}
+		}
+	}
+
+	private synchronized void put(String id, Listing listing) {
+		Listing old = listings.put(id, listing);
+		if (old != null) {
+			cachedKeys -= old.size();
+		}
+		cachedKeys += listing.size();
+		Iterator<Listing> lru = listings.values().iterator();
+		while (cachedKeys > maxCachedKeys && lru.hasNext()) {
+			Listing evicted = lru.next();
+			if (evicted != listing) {
+				cachedKeys -= evicted.size();
+				lru.remove();
+			}
+		}
+	}
+
+	private static List<S3ObjectSummary> list(AmazonS3 s3, String bucketName, String prefix) {
+		List<S3ObjectSummary> summaries = new ArrayList<S3ObjectSummary>();
+		for (S3ObjectSummary summary : S3ObjectIterator.iterable(s3, bucketName, prefix, null)) {
+			summaries.add(summary);
+		}
+		return summaries;
+	}
+
+	private Listing refresh(AmazonS3 s3, Listing old, long now) {
+		Refresh refresh = new Refresh();
+		refreshLevel(s3, old, old.prefix, refreshDepth, refresh);
+		return old.splice(refresh, now);
+	}
+
+	/**
+	 * What an incremental refresh listed again
+	 */
+	static class Refresh {
+		// objects found by the refresh
+		final List<S3ObjectSummary> changed = new ArrayList<S3ObjectSummary>();
+		// prefixes listed a level at a time: the objects directly under them were listed
+		final Set<String> levelListed = new HashSet<String>();
+		// the sub-folders that exist under the level listed prefixes
+		final Set<String> children = new HashSet<String>();
+		// prefixes listed in full
+		final Set<String> fullyListed = new HashSet<String>();
+	}
+
+	/**
+	 * List the objects and sub-folders directly under prefix; then list again the new sub-folders and, down to depth
+	 * levels, the greatest one that was known.
+	 */
+	private static void refreshLevel(AmazonS3 s3, Listing old, String prefix, int depth, Refresh refresh) {
+		List<String> children = new ArrayList<String>();
+		ObjectListing page = s3.listObjects(new ListObjectsRequest().withBucketName(old.bucketName)
+				.withPrefix(prefix).withDelimiter(DELIMITER));
+		for (;;) {
+			refresh.changed.addAll(page.getObjectSummaries());
+			children.addAll(page.getCommonPrefixes());
+			if (!page.isTruncated()) {
+				break;
+			}
+			page = s3.listNextBatchOfObjects(page);
+		}
+		refresh.levelListed.add(prefix);
+		refresh.children.addAll(children);
+		Collections.sort(children);
+		String greatestKnown = null;
+		for (String child : children) {
+			if (old.hasPrefix(child)) {
+				greatestKnown = child;
+			}
+		}
+		for (String child : children) {
+			if (child.equals(greatestKnown) && depth > 1) {
+				refreshLevel(s3, old, child, depth - 1, refresh);
+			} else if (child.equals(greatestKnown) || !old.hasPrefix(child)) {
+				refresh.changed.addAll(list(s3, old.bucketName, child));
+				refresh.fullyListed.add(child);
+			}
+		}
+	}
+
+	private File snapshotFile(String bucketName, String prefix) {
+		try {
+			return new File(snapshotDir, URLEncoder.encode(bucketName + DELIMITER + prefix, "UTF-8") + ".snapshot");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Listing load(String bucketName, String prefix) {
+		if (snapshotDir == null) {
+			return null;
+		}
+		File file = snapshotFile(bucketName, prefix);
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+			return Listing.read(in, bucketName, prefix);
+		} catch (IOException e) {
+			LOG.warn("Ignoring unreadable listing snapshot " + file + ": " + e);
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	private void save(Listing listing) {
+		if (snapshotDir == null) {
+			return;
+		}
+		File file = snapshotFile(listing.bucketName, listing.prefix);
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+			listing.write(out);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Can't rename " + tmp + " to " + file);
+				}
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not save listing snapshot " + file + ": " + e);
+			tmp.delete();
+		} finally {
+			close(out);
+		}
+	}
+
+	private static void close(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * An immutable listing of the objects under a prefix, sorted by key
+	 */
+	public static class Listing
+	{
+		private final String bucketName;
+		private final String prefix;
+		private final long listedAt;
+		private final String[] keys;
+		private final long[] sizes;
+		private final long[] lastModified;
+
+		private Listing(String bucketName, String prefix, long listedAt, String[] keys, long[] sizes,
+				long[] lastModified) {
+			this.bucketName = bucketName;
+			this.prefix = prefix;
+			this.listedAt = listedAt;
+			this.keys = keys;
+			this.sizes = sizes;
+			this.lastModified = lastModified;
+		}
+
+		Listing(String bucketName, String prefix, long listedAt, List<S3ObjectSummary> summaries) {
+			this.bucketName = bucketName;
+			this.prefix = prefix;
+			this.listedAt = listedAt;
+			S3ObjectSummary[] sorted = summaries.toArray(new S3ObjectSummary[summaries.size()]);
+			Arrays.sort(sorted, new Comparator<S3ObjectSummary>() {
+				@Override
+				public int compare(S3ObjectSummary a, S3ObjectSummary b) {
+					return a.getKey().compareTo(b.getKey());
+				}
+			});
+			// a key listed twice (by overlapping listings during a refresh) is kept once
+			int n = 0;
+			String[] keys = new String[sorted.length];
+			long[] sizes = new long[sorted.length];
+			long[] lastModified = new long[sorted.length];
+			for (S3ObjectSummary summary : sorted) {
+				if (n > 0 && keys[n - 1].equals(summary.getKey())) {
+					n--;
+				}
+				keys[n] = summary.getKey();
+				sizes[n] = summary.getSize();
+				lastModified[n] = summary.getLastModified() == null ? 0 : summary.getLastModified().getTime();
+				n++;
+			}
+			this.keys = n == keys.length ? keys : Arrays.copyOf(keys, n);
+			this.sizes = n == sizes.length ? sizes : Arrays.copyOf(sizes, n);
+			this.lastModified = n == lastModified.length ? lastModified : Arrays.copyOf(lastModified, n);
+		}
+
+		public String getBucketName() {
+			return bucketName;
+		}
+
+		public String getPrefix() {
+			return prefix;
+		}
+
+		/** when the listing was taken (or last refreshed), in milliseconds since the epoch */
+		public long getListedAt() {
+			return listedAt;
+		}
+
+		public int size() {
+			return keys.length;
+		}
+
+		public String getKey(int i) {
+			return keys[i];
+		}
+
+		public long getSize(int i) {
+			return sizes[i];
+		}
+
+		public long getLastModified(int i) {
+			return lastModified[i];
+		}
+
+		/** the keys, in sorted order */
+		public List<String> getKeys() {
+			return Collections.unmodifiableList(Arrays.asList(keys));
+		}
+
+		public boolean contains(String key) {
+			return Arrays.binarySearch(keys, key) >= 0;
+		}
+
+		/** true if any key starts with the prefix */
+		boolean hasPrefix(String p) {
+			int i = lowerBound(p);
+			return i < keys.length && keys[i].startsWith(p);
+		}
+
+		private int lowerBound(String key) {
+			int i = Arrays.binarySearch(keys, key);
+			return i < 0 ? -i - 1 : i;
+		}
+
+		Listing subListing(String subPrefix) {
+			int from = lowerBound(subPrefix);
+			int to = from;
+			while (to < keys.length && keys[to].startsWith(subPrefix)) {
+				to++;
+			}
+			return new Listing(bucketName, subPrefix, listedAt, Arrays.copyOfRange(keys, from, to),
+					Arrays.copyOfRange(sizes, from, to), Arrays.copyOfRange(lastModified, from, to));
+		}
+
+		/**
+		 * Replace what the refresh listed again with what it found, keeping everything else
+		 */
+		Listing splice(Refresh refresh, long now) {
+			List<S3ObjectSummary> merged = new ArrayList<S3ObjectSummary>(keys.length + refresh.changed.size());
+			for (int i = 0; i < keys.length; i++) {
+				if (!isRelisted(keys[i], refresh)) {
+					merged.add(summary(i));
+				}
+			}
+			merged.addAll(refresh.changed);
+			return new Listing(bucketName, prefix, now, merged);
+		}
+
+		/**
+		 * Every prefix the refresh listed is the listing's prefix or a sub-folder ending in "/", so only the prefix and
+		 * the sub-folders of the key itself need looking up, however many prefixes were listed.
+		 */
+		private boolean isRelisted(String key, Refresh refresh) {
+			if (isRelisted(key, prefix, refresh)) {
+				return true;
+			}
+			for (int slash = key.indexOf('/', prefix.length()); slash >= 0; slash = key.indexOf('/', slash + 1)) {
+				if (isRelisted(key, key.substring(0, slash + 1), refresh)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static boolean isRelisted(String key, String p, Refresh refresh) {
+			if (refresh.fullyListed.contains(p)) {
+				return true;
+			}
+			if (refresh.levelListed.contains(p)) {
+				int slash = key.indexOf('/', p.length());
+				// directly under p, or under a sub-folder that's gone
+				return slash < 0 || !refresh.children.contains(key.substring(0, slash + 1));
+			}
+			return false;
+		}
+
+		private S3ObjectSummary summary(int i) {
+			S3ObjectSummary summary = new S3ObjectSummary();
+			summary.setBucketName(bucketName);
+			summary.setKey(keys[i]);
+			summary.setSize(sizes[i]);
+			summary.setLastModified(new Date(lastModified[i]));
+			return summary;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeLong(listedAt);
+			WritableUtils.writeVInt(out, keys.length);
+			String previous = "";
+			for (int i = 0; i < keys.length; i++) {
+				// front coding: the length shared with the previous key, then the rest
+				int shared = 0;
+				int n = Math.min(previous.length(), keys[i].length());
+				while (shared < n && previous.charAt(shared) == keys[i].charAt(shared)) {
+					shared++;
+				}
+				// don't split a surrogate pair, or the rest isn't a string that can be encoded
+				if (shared > 0 && Character.isHighSurrogate(keys[i].charAt(shared - 1))) {
+					shared--;
+				}
+				WritableUtils.writeVInt(out, shared);
+				WritableUtils.writeString(out, keys[i].substring(shared));
+				WritableUtils.writeVLong(out, sizes[i]);
+				WritableUtils.writeVLong(out, lastModified[i]);
+				previous = keys[i];
+			}
+		}
+
+		static Listing read(DataInputStream in, String bucketName, String prefix) throws IOException {
+			if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+				throw new IOException("Not a listing snapshot");
+			}
+			long listedAt = in.readLong();
+			int n = WritableUtils.readVInt(in);
+			String[] keys = new String[n];
+			long[] sizes = new long[n];
+			long[] lastModified = new long[n];
+			String previous = "";
+			for (int i = 0; i < n; i++) {
+				int shared = WritableUtils.readVInt(in);
+				keys[i] = previous.substring(0, shared) + WritableUtils.readString(in);
+				sizes[i] = WritableUtils.readVLong(in);
+				lastModified[i] = WritableUtils.readVLong(in);
+				previous = keys[i];
+			}
+			return new Listing(bucketName, prefix, listedAt, keys, sizes, lastModified);
+		}
+	}
+}
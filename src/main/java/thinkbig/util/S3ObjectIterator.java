@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Lazily iterates over the objects in an S3 bucket, one listing page at a time, following truncated listings
+ * to the end. Prefix and delimiter filtering are done by S3, and only the current page is held in memory.
+ *
+ */
+public class S3ObjectIterator implements Iterator<S3ObjectSummary>
+{
+	private final AmazonS3 s3;
+	private ObjectListing listing;
+	private Iterator<S3ObjectSummary> page;
+
+	/**
+	 * @param s3
+	 * @param bucketName
+	 * @param prefix only list keys starting with prefix (null for all)
+	 * @param delimiter if not null, don't list keys containing the delimiter after the prefix
+	 */
+	public S3ObjectIterator(AmazonS3 s3, String bucketName, String prefix, String delimiter) {
+		this.s3 = s3;
+		listing = s3.listObjects(new ListObjectsRequest().withBucketName(bucketName)
+				.withPrefix(prefix).withDelimiter(delimiter));
+		page = listing.getObjectSummaries().iterator();
+	}
+
+	/**
+	 * an Iterable, for use in for loops, that lists the bucket afresh each time it's iterated
+	 * @param s3
+	 * @param bucketName
+	 * @param prefix
+	 * @param delimiter
+	 * @return
+	 */
+	public static Iterable<S3ObjectSummary> iterable(final AmazonS3 s3, final String bucketName,
+			final String prefix, final String delimiter) {
+		return new Iterable<S3ObjectSummary>() {
+			@Override
+			public Iterator<S3ObjectSummary> iterator() {
+				return new S3ObjectIterator(s3, bucketName, prefix, delimiter);
+			}
+		};
+	}
+
+	@Override
+	public boolean hasNext() {
+		// a truncated listing can come back with an empty page, so keep going until there's an object or the end
+		while (!page.hasNext() && listing.isTruncated()) {
+			listing = s3.listNextBatchOfObjects(listing);
+			page = listing.getObjectSummaries().iterator();
+		}
+		return page.hasNext();
+	}
+
+	@Override
+	public S3ObjectSummary next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return page.next();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -18,11 +18,8 @@ package thinkbig.util;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.fs.FileStatus;
@@ -30,9 +27,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.JobConf;
 
-import com.amazonaws.auth.PropertiesCredentials;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.*;
 
 /**
@@ -43,9 +38,20 @@ import com.amazonaws.services.s3.model.*;
 public class Util
 {	
 	static Pattern s3UriPattern = Pattern.compile("s3[n]*://(.*)//(.*)", Pattern.CASE_INSENSITIVE);
+	
+	private static volatile S3ListingCache listingCache = null;
+	
+	/**
+	 * serve getAllObjectKeysInBucket and getAllObjectsInfolder from a listing cache
+	 * @param cache the cache, or null to always list S3
+	 */
+	public static void setListingCache(S3ListingCache cache) {
+		listingCache = cache;
+	}
    
 	/**
-	 * get an Amazon s3 client
+	 * get an Amazon s3 client, shared with every other caller using the same credentials
+	 * (see S3ClientRegistry)
 	 * @param credentialFile AWS credential properties file
 	 * @return an s3 client, if credential is valid, otherwise return null
 	 */
@@ -54,7 +60,7 @@ public class Util
 		AmazonS3 s3 = null;
 		
 		try {
-			s3 = new AmazonS3Client(new PropertiesCredentials(new File(credentialFile)));
+			s3 = S3ClientRegistry.getClient(credentialFile);
 		} catch (FileNotFoundException e) {
 			System.out.println("File '" + credentialFile + "' not found!");	
 		} catch (IOException e) {
@@ -68,7 +74,7 @@ public class Util
 	
 	/**
 	 * returns (and prints) all (only non-empty objects if excludeBlanks is true) objects 
-	 * in an S3 bucket as list of Strings
+	 * in an S3 bucket as list of Strings, following the listing through all its pages
 	 * null if no such bucket exists
 	 * @param s3
 	 * @param bucketName
@@ -76,31 +82,7 @@ public class Util
 	 * @return
 	 */
     public static List<String> getAllObjectKeysInBucket(AmazonS3 s3, String bucketName, boolean excludeBlanks) {
-    	
-    	// check if the client is valid
-    	if (s3 == null) {
-    		System.out.println("Not a valid S3 Client");
-    		return null;
-    	}
-    	// check if the bucket exists
-	if (!s3.doesBucketExist(bucketName)) {
-		System.out.println("The bucket '" + bucketName + "' does not exist!");	
-		return null;
-	}
-    	System.out.println("Listing objects in bucket '" + bucketName + "' ");
-	ObjectListing objectListing = s3.listObjects(new ListObjectsRequest().withBucketName(bucketName));
-	if (objectListing == null) {
-		return null;
-	}
-	List<String> objectKeys = new ArrayList<String>();
-        for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
-		String key = objectSummary.getKey();
-		if (!excludeBlanks || objectSummary.getSize() > 0) {
-			objectKeys.add(key);
-			System.out.println(" - " + key + "  "  +  "(size = " + objectSummary.getSize() + ")");
-		}
-	}
-        return objectKeys;
+    	return getAllObjectKeys(s3, bucketName, null, excludeBlanks);
     }  
     
     /**
@@ -115,27 +97,67 @@ public class Util
 	
     /**
      * get all the objects in the folder from the S3 bucket
+     * (only the folder is listed, S3 does the filtering)
      * @param s3
      * @param bucketName
      * @param folderName
      * @return list of objects
      */
     public static List<String> getAllObjectsInfolder(AmazonS3 s3, String bucketName, String folderName) {
-    	List<String> objectKeys = getAllObjectKeysInBucket(s3, bucketName);
-    	if (objectKeys == null) {
+    	return getAllObjectKeys(s3, bucketName, folderName, false);
+    }
+    
+    /**
+     * lazily iterate over the objects in an S3 bucket whose keys start with prefix,
+     * one listing page at a time
+     * @param s3
+     * @param bucketName
+     * @param prefix null for all objects
+     * @param delimiter null to list recursively, e.g. "/" for a single level
+     * @return iterable over the object summaries (key, size, last modified)
+     */
+    public static Iterable<S3ObjectSummary> listObjects(AmazonS3 s3, String bucketName, String prefix, String delimiter) {
+    	return S3ObjectIterator.iterable(s3, bucketName, prefix, delimiter);
+    }
+    
+    private static List<String> getAllObjectKeys(AmazonS3 s3, String bucketName, String prefix, boolean excludeBlanks) {
+    	
+    	// check if the client is valid
+    	if (s3 == null) {
+    		System.out.println("Not a valid S3 Client");
     		return null;
     	}
-    	List<String> filteredObjects = new ArrayList<String>();
-    	for (String object: objectKeys) {
-			if (object.indexOf(folderName) == 0) {
-				filteredObjects.add(object);
+    	// check if the bucket exists
+	if (!s3.doesBucketExist(bucketName)) {
+		System.out.println("The bucket '" + bucketName + "' does not exist!");	
+		return null;
+	}
+    	System.out.println("Listing objects in bucket '" + bucketName + "' " + (prefix == null ? "" : "under '" + prefix + "'"));
+	List<String> objectKeys = new ArrayList<String>();
+	S3ListingCache cache = listingCache;
+	if (cache != null) {
+		S3ListingCache.Listing listing = cache.get(s3, bucketName, prefix);
+		for (int i = 0; i < listing.size(); ++i) {
+			if (!excludeBlanks || listing.getSize(i) > 0) {
+				objectKeys.add(listing.getKey(i));
+				System.out.println(" - " + listing.getKey(i) + "  "  +  "(size = " + listing.getSize(i) + ")");
 			}
 		}
-    	return filteredObjects;
+		return objectKeys;
+	}
+        for (S3ObjectSummary objectSummary : listObjects(s3, bucketName, prefix, null)) {
+		String key = objectSummary.getKey();
+		if (!excludeBlanks || objectSummary.getSize() > 0) {
+			objectKeys.add(key);
+			System.out.println(" - " + key + "  "  +  "(size = " + objectSummary.getSize() + ")");
+		}
+	}
+        return objectKeys;
     }
     
     /**
      * Check if all the (top level) objects in the list exist in the S3 bucket
+     * (prints every missing object)
      * @param s3
      * @param bucketName
      * @param objectKeys
@@ -149,21 +171,21 @@ public class Util
     		return false;
     	}
     	
-    	List<String> objectsInBucket = getAllObjectKeysInBucket(s3, bucketName);
-    	if (objectsInBucket == null) {
+    	S3ExistenceChecker checker = new S3ExistenceChecker(s3);
+    	if (!checker.bucketExists(bucketName)) {
+		System.out.println("The bucket '" + bucketName + "' does not exist!");	
     		return false;
     	}
-    	for (String object:objectKeys) {
-	    	if (!objectsInBucket.contains(object)) {
-				System.out.println("'" + object + "' does not exist in the bucket '" + bucketName + "' on S3!");
-				return false;
-			}
+    	Set<String> missing = checker.findMissingKeys(bucketName, objectKeys);
+    	for (String object:missing) {
+		System.out.println("'" + object + "' does not exist in the bucket '" + bucketName + "' on S3!");
     	}
-    	return true;
+    	return missing.isEmpty();
     } 
     
     /**
      * Check if all the S3 Uris exist
+     * (prints every missing Uri)
      * @param s3
      * @param s3Uris
      * @return true, if all Uris in the list exist
@@ -176,22 +198,11 @@ public class Util
     		return false;
     	}
     	
-    	boolean found = true;
-    	for (String s3Uri:s3Uris) {
-    		  Matcher matcher = s3UriPattern.matcher(s3Uri);
-    		  if (matcher.find()) {
-    			 String bucket = matcher.group(1);
-    			 String key = matcher.group(2);
-    			 found &= s3.doesBucketExist(bucket) & (s3.getObject(bucket, key) != null);
-    			 if (!found) {
-    				return false;
-    			 }
-    		  }
-    		  else {
-    			  return false;
-    		  }
-     	}
-    	return true;
+    	Set<String> missing = new S3ExistenceChecker(s3).findMissingUris(s3Uris);
+    	for (String s3Uri:missing) {
+		System.out.println("'" + s3Uri + "' does not exist on S3!");
+    	}
+    	return missing.isEmpty();
     } 
     
 	/**
@@ -200,7 +211,7 @@ public class Util
 		S3 bucket 'test-job-bucket') and
 		there is an input file with 	  input-path  'input/2011/08/01/*.txt'
 		there must be an output file with output-path 'output/2011/08/01/*.txt'
-		assumption: the lists are ordered in the same manner (generated using the AWS list API)
+		the lists may be in any order; mismatches are printed, see CorrespondenceValidator for the full report
 
 		1-1 correspondence (executable just copies the file, file name may be different)
 		input/2011/11/02/in/in2/in3/tfidf1	<->	output/2011/11/02/in/in2/in3/tfidf1
@@ -219,22 +230,17 @@ public class Util
     public static boolean validateInputOutput1_1Correspondence(String iPath, String oPath, 
     		List<String> iFiles, List<String> oFiles) {
 		
-		// number of input and output files must be same
-   		if (iFiles.size() != oFiles.size()) {
-   			return false;
-   		}
-   		// check 1-1 correspondence
-   		for (int i = 0; i < iFiles.size(); ++i) {
-   			String iFile = iFiles.get(i);
-   			String oFile = oFiles.get(i);   			
-   			if (!iFile.substring(0, iFile.indexOf('/')).equals(iPath) ||
-   				!oFile.substring(0, oFile.indexOf('/')).equals(oPath) ||
-   				!iFile.substring(iFile.indexOf('/'), iFile.lastIndexOf('/')).equals
-   				(oFile.substring(oFile.indexOf('/'), oFile.lastIndexOf('/')))) {
-   				return false;
-   			}
-   		}
-   		return true;
+		try {
+			CorrespondenceValidator.Report report = new CorrespondenceValidator(iPath, oPath)
+				.validate(iFiles.iterator(), oFiles.iterator());
+			if (!report.isValid()) {
+				System.out.println("No 1-1 correspondence between " + iPath + " and " + oPath + ": " + report);
+			}
+			return report.isValid();
+		} catch (IOException e) {
+			System.out.println("Caught an IOException: " + e.getMessage());
+			return false;
+		}
 	}
     
     /**
@@ -245,44 +251,51 @@ public class Util
      * @return true, if it falls in the range (inclusive)
      */
     public static boolean isDateWithinDates(Date date, Date start, Date end) {
-    	Calendar curDate = Calendar.getInstance();
-    	curDate.setTime(date);
-    	Calendar startDate = Calendar.getInstance();
-    	startDate.setTime(start);
-    	Calendar endDate = Calendar.getInstance();
-    	endDate.setTime(end);
-    	return curDate.equals(startDate) || curDate.equals(endDate) ||
-    		   curDate.after(startDate) && curDate.before(endDate); 
+    	long time = date.getTime();
+    	return time >= start.getTime() && time <= end.getTime();
     }
 
     /**
-     * Recursively enumerate all files inside the directory dirPath in FileSystem fs
+     * Recursively enumerate all files inside the directory dirPath in FileSystem fs, 
+     * adding those not already in files (in sorted order)
      * @param fs
      * @param dirPath
      * @param files
      * @throws IOException
      */
 	public static void getAllFiles(FileSystem fs, String dirPath, List<String> files) throws IOException {
+		getAllFiles(fs, dirPath, files, DirectoryWalker.DEFAULT_LISTING_THREADS);
+	}
 
-		Path loc = new Path(dirPath);
-		FileStatus[] statuses = fs.listStatus(loc);
-		if (statuses != null) {
-			int i = 0;
-			for (FileStatus status : statuses) {
-			    String file = statuses[i++].getPath().toString();
-			    if (fs.isDirectory(new Path(file))) {
-				getAllFiles(fs, file, files);	
+    /**
+     * Recursively enumerate all files inside the directory dirPath in FileSystem fs, 
+     * listing up to nThreads directories at a time
+     * @param fs
+     * @param dirPath
+     * @param files
+     * @param nThreads
+     * @throws IOException
+     */
+	public static void getAllFiles(FileSystem fs, String dirPath, List<String> files, int nThreads) throws IOException {
+
+		final Set<String> known = new HashSet<String>(files);
+		final List<String> found = new ArrayList<String>();
+		new DirectoryWalker(fs, nThreads).walk(new Path(dirPath), new DirectoryWalker.Visitor() {
+			@Override
+			public void visit(FileStatus status) {
+			    String file = status.getPath().toString();
+			    if (known.add(file)) { // if not already there
+				found.add(file);
 			    }
-			    else if (files.indexOf(file) == -1) { // if not already there
-				System.out.println(file);
-				files.add(file);
-			    } 
 			}
-		}
+		});
+		Collections.sort(found);
+		files.addAll(found);
 	}
 
     /**
-     * Recursively enumerate all files inside the directory dirPath
+     * Recursively enumerate all files inside the directory dirPath,
+     * listing thinkbig.listing.threads directories at a time
      * @param dirPath
      * @param job
      * @return list of files
@@ -290,22 +303,57 @@ public class Util
      */
 	public static List<String> enumerateDistributedFiles(String dirPath, JobConf job) throws IOException {
 
-		FileSystem fs;
+		FileSystem fs = getFileSystem(dirPath, job);
+		System.out.println("Path: " + dirPath);
+
+		List<String> files = new ArrayList<String>();
+		getAllFiles(fs, dirPath, files, job.getInt(DirectoryWalker.LISTING_THREADS, DirectoryWalker.DEFAULT_LISTING_THREADS));
+		return files;
+	}
+
+    /**
+     * Recursively enumerate the files inside the directory dirPath, handing each 
+     * to the visitor as soon as it's found rather than building a list
+     * @param dirPath
+     * @param job
+     * @param visitor
+     * @throws IOException
+     */
+	public static void enumerateDistributedFiles(String dirPath, JobConf job, DirectoryWalker.Visitor visitor) throws IOException {
+		FileSystem fs = getFileSystem(dirPath, job);
+		new DirectoryWalker(fs, job.getInt(DirectoryWalker.LISTING_THREADS, DirectoryWalker.DEFAULT_LISTING_THREADS))
+				.walk(new Path(dirPath), visitor);
+	}
+
+    /**
+     * Recursively enumerate the files in the date partitions of pathTemplate from start
+     * to end (inclusive), listing only those partitions rather than the whole tree,
+     * thinkbig.listing.threads directories at a time
+     * e.g., enumerateDistributedFiles("s3n://bucket/input/{yyyy/MM/dd}/", start, end, job)
+     * @param pathTemplate path with the date pattern in braces, see DatePartitionPlanner
+     * @param start
+     * @param end
+     * @param job
+     * @return list of files (sorted)
+     * @throws IOException
+     */
+	public static List<String> enumerateDistributedFiles(String pathTemplate, Date start, Date end, JobConf job) throws IOException {
+		DatePartitionPlanner planner = new DatePartitionPlanner(pathTemplate);
+		FileSystem fs = getFileSystem(pathTemplate.substring(0, pathTemplate.indexOf('{')), job);
+		return planner.listFiles(fs, start, end,
+				job.getInt(DirectoryWalker.LISTING_THREADS, DirectoryWalker.DEFAULT_LISTING_THREADS));
+	}
+
+	private static FileSystem getFileSystem(String dirPath, JobConf job) throws IOException {
 		if (dirPath.contains(":")) {
 		    try {
-		    	fs = FileSystem.get(new URI(dirPath), job);
+		    	return FileSystem.get(new URI(dirPath), job);
 		    }
 		    catch (URISyntaxException e) {
 		    	throw new IOException(e);
 		    }
-		} else {
-		    fs = FileSystem.get(job);
 		}
-		System.out.println("Path: " + dirPath);
-
-		List<String> files = new ArrayList<String>();
-		getAllFiles(fs, dirPath, files);
-		return files;
+		return FileSystem.get(job);
 	}
 	
    /**
@@ -314,29 +362,16 @@ public class Util
      * @param nDays
      * @return modified date (in outputDatFormat)
      * e.g., addDays("2008-02-28", 1, "yyyy-MM-dd", "MM/yy/dd") returns "02/08/29"
-     * 		 addDays("2008-02-28", -29, "yyyy-MM-dd", "MM/yy/dd") returns "01/08/31"
+     * 		 addDays("2008-02-28", -29, "yyyy-MM-dd", "MM/yy/dd") returns "01/08/30"
      * 		 addDays("2008-02-28", 0, "yyyy-MM-dd", "MM/yy/dd") returns "02/08/28" (simply converts the date format)
      */
     public static String addDays(String dateStr, int nDays, String inputDateFormat, String outputDateFormat) {
-	 
     	try {
-		
-    		DateFormat inputFormatter = new SimpleDateFormat(inputDateFormat);
-    		DateFormat outputFormatter = inputDateFormat.equals(outputDateFormat) ? 
-    				   					 inputFormatter : new SimpleDateFormat(outputDateFormat);
-    		
-    		Date date = (Date)inputFormatter.parse(dateStr);  
-   
-			Calendar calendar = Calendar.getInstance();
-			calendar.setTime(date);
-			calendar.add(Calendar.DATE, nDays);
-		
-			return outputFormatter.format(calendar.getTime());
-			 
-	     } catch (ParseException e) {
-      		
-	    	 return null;
-         }  
+    		Date date = DateFormats.get(inputDateFormat).parse(dateStr);
+    		return DateFormats.get(outputDateFormat).format(DateFormats.add(date, Calendar.DATE, nDays));
+    	} catch (ParseException e) {
+    		return null;
+    	}
     }
     
     /**
@@ -373,14 +408,6 @@ public class Util
 	 * @throws java.text.ParseException
 	 */
     public static String convertDate(String date, String sourceFormat, String destinationFormat) throws java.text.ParseException {
-	    String returnDateString = "";
-	   
-	    SimpleDateFormat formatter = new SimpleDateFormat(sourceFormat);
-	    Date returnDate = formatter.parse(date);
-	 
-	    formatter = new SimpleDateFormat(destinationFormat);
-	    returnDateString = formatter.format(returnDate);
-	  
-	    return returnDateString;
+    	return DateFormats.get(destinationFormat).format(DateFormats.get(sourceFormat).parse(date));
     }
 }
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class TestArchiveEntries extends TestCase {
+
+	private static String read(ArchiveEntries entries) throws IOException {
+		DocumentBuffer buffer = new DocumentBuffer();
+		assertTrue(buffer.readFully(entries.getStream(), entries.getSize(), Long.MAX_VALUE));
+		return new String(buffer.getBytes(), 0, buffer.getLength());
+	}
+
+	private static void tarEntry(ByteArrayOutputStream out, String name, char type, String contents) {
+		byte[] header = new byte[512];
+		System.arraycopy(name.getBytes(), 0, header, 0, name.length());
+		byte[] size = String.format("%011o", contents.length()).getBytes();
+		System.arraycopy(size, 0, header, 124, size.length);
+		header[156] = (byte) type;
+		out.write(header, 0, header.length);
+		out.write(contents.getBytes(), 0, contents.length());
+		out.write(new byte[(512 - contents.length() % 512) % 512], 0, (512 - contents.length() % 512) % 512);
+	}
+
+	@Test
+	public void testNotArchive() throws IOException {
+		assertNull(ArchiveEntries.open("a.txt", new ByteArrayInputStream(new byte[0]), false));
+		assertNull(ArchiveEntries.open("a.zip", new ByteArrayInputStream(new byte[0]), true));
+	}
+
+	/**
+	 * Test reading file entries and skipping directories, in a zip
+	 */
+	@Test
+	public void testZip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(bytes);
+		zip.putNextEntry(new ZipEntry("a.txt"));
+		zip.write("first".getBytes());
+		zip.putNextEntry(new ZipEntry("dir/"));
+		zip.putNextEntry(new ZipEntry("dir/b.txt"));
+		zip.write("second".getBytes());
+		zip.close();
+		ArchiveEntries entries = ArchiveEntries.open("docs.zip", new ByteArrayInputStream(bytes.toByteArray()), false);
+		assertTrue(entries.next());
+		assertEquals("a.txt", entries.getName());
+		assertEquals("first", read(entries));
+		assertTrue(entries.next());
+		assertEquals("dir/b.txt", entries.getName());
+		assertEquals("second", read(entries));
+		assertFalse(entries.next());
+	}
+
+	/**
+	 * Test reading file entries, including one left unread, and skipping directories, in a tar
+	 */
+	@Test
+	public void testTar() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		tarEntry(bytes, "a.txt", '0', "first");
+		tarEntry(bytes, "dir/", '5', "");
+		tarEntry(bytes, "dir/b.txt", '0', "second");
+		tarEntry(bytes, "dir/c.txt", '0', "third");
+		bytes.write(new byte[1024], 0, 1024);
+		ArchiveEntries entries = ArchiveEntries.open("docs.tar", new ByteArrayInputStream(bytes.toByteArray()), false);
+		assertTrue(entries.next());
+		assertEquals("a.txt", entries.getName());
+		assertEquals(5, entries.getSize());
+		assertEquals("first", read(entries));
+		assertTrue(entries.next());
+		assertEquals("dir/b.txt", entries.getName());
+		assertTrue(entries.next());
+		assertEquals("dir/c.txt", entries.getName());
+		assertEquals("third", read(entries));
+		assertFalse(entries.next());
+	}
+}
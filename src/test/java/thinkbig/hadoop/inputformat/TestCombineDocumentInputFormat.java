@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.CombineFileSplit;
+import org.junit.Test;
+
+@SuppressWarnings("deprecation")
+public class TestCombineDocumentInputFormat extends TestCase {
+
+	private static FileStatus file(String name, long length) {
+		return new FileStatus(length, false, 1, 64 << 20, 0, new Path("/in/" + name));
+	}
+
+	// a single block held by the given hosts, each named rack/host
+	private static BlockLocation[] on(long length, String... rackHosts) {
+		String[] hosts = new String[rackHosts.length];
+		String[] topologyPaths = new String[rackHosts.length];
+		for (int i = 0; i < rackHosts.length; i++) {
+			hosts[i] = rackHosts[i].substring(rackHosts[i].indexOf('/') + 1);
+			topologyPaths[i] = "/" + rackHosts[i];
+		}
+		return new BlockLocation[] { new BlockLocation(hosts, hosts, topologyPaths, 0, length) };
+	}
+
+	// each split as its file names, '@' and its locations
+	private static String describe(InputSplit[] splits) throws IOException {
+		StringBuilder description = new StringBuilder();
+		for (InputSplit split : splits) {
+			CombineFileSplit combined = (CombineFileSplit) split;
+			if (description.length() > 0) {
+				description.append(", ");
+			}
+			for (Path path : combined.getPaths()) {
+				description.append(path.getName());
+			}
+			String[] locations = combined.getLocations();
+			Arrays.sort(locations);
+			description.append('@').append(Arrays.toString(locations));
+		}
+		return description.toString();
+	}
+
+	/**
+	 * Test that files are packed on their node, then their rack, then anywhere, with leftovers smaller than the
+	 * minimum node split size passed on to the rack level
+	 */
+	@Test
+	public void testCombineByLocality() throws IOException {
+		JobConf job = new JobConf();
+		job.setLong(CombineDocumentInputFormat.MAX_SPLIT_SIZE, 100);
+		job.setLong(CombineDocumentInputFormat.MIN_SPLIT_SIZE_NODE, 50);
+		FileStatus[] files = { file("a", 40), file("b", 40), file("c", 40), file("d", 10), file("e", 10),
+				file("f", 10) };
+		BlockLocation[][] locations = { on(40, "r1/h1"), on(40, "r1/h1"), on(40, "r1/h1"), on(10, "r1/h2"),
+				on(10, "r2/h3"), new BlockLocation[0] };
+		InputSplit[] splits = CombineDocumentInputFormat.combine(job, files, locations);
+		// a and b fill a split on h1; c, d and e are too small for a split of their own node
+		assertEquals("ab@[h1], cd@[h1, h2], e@[h3], f@[]", describe(splits));
+		assertEquals(80, splits[0].getLength());
+	}
+
+	/**
+	 * Test that a document is only indexed under the hosts holding most of its bytes, up to its replication
+	 */
+	@Test
+	public void testCombineTopHosts() throws IOException {
+		JobConf job = new JobConf();
+		job.setLong(CombineDocumentInputFormat.MAX_SPLIT_SIZE, 200);
+		FileStatus[] files = { file("b", 10), file("a", 100) };
+		BlockLocation[][] locations = {
+				on(10, "r1/h2"),
+				{ new BlockLocation(new String[] { "h1" }, new String[] { "h1" }, 0, 90),
+						new BlockLocation(new String[] { "h2" }, new String[] { "h2" }, 90, 10) } };
+		// a holds one block on h2, but isn't packed there alongside b
+		assertEquals("b@[h2], a@[h1]", describe(CombineDocumentInputFormat.combine(job, files, locations)));
+	}
+
+	/**
+	 * Test that splits are closed at the maximum number of files and the maximum size
+	 */
+	@Test
+	public void testCombineLimits() throws IOException {
+		JobConf job = new JobConf();
+		job.setInt(CombineDocumentInputFormat.MAX_FILES, 2);
+		job.setLong(CombineDocumentInputFormat.MAX_SPLIT_SIZE, 100);
+		FileStatus[] files = { file("a", 1), file("b", 1), file("c", 1), file("d", 1), file("e", 1), file("f", 100),
+				file("g", 150) };
+		BlockLocation[][] locations = new BlockLocation[files.length][];
+		for (int i = 0; i < files.length; i++) {
+			locations[i] = on(files[i].getLen(), "r1/h1");
+		}
+		InputSplit[] splits = CombineDocumentInputFormat.combine(job, files, locations);
+		// a document larger than the maximum split size still gets a split of its own
+		assertEquals("ab@[h1], cd@[h1], e@[h1], f@[h1], g@[h1]", describe(splits));
+	}
+
+	/**
+	 * Test that the documents of a split are read in turn through the shared buffer, each record holding only its
+	 * own document
+	 */
+	@Test
+	public void testReadSplit() throws IOException {
+		JobConf job = new JobConf();
+		job.set("docinput.prepend.key", ":");
+		FileSystem fs = FileSystem.getLocal(job);
+		Path dir = new Path(new File(System.getProperty("java.io.tmpdir"), "TestCombineDocumentInputFormat-"
+				+ System.nanoTime()).getAbsolutePath());
+		String[] contents = { "the first and longest document of the split", "", "third" };
+		Path[] paths = new Path[contents.length];
+		long[] lengths = new long[contents.length];
+		try {
+			for (int i = 0; i < contents.length; i++) {
+				paths[i] = new Path(dir, "doc" + i);
+				FSDataOutputStream out = fs.create(paths[i]);
+				out.write(contents[i].getBytes("UTF-8"));
+				out.close();
+				lengths[i] = contents[i].length();
+			}
+			CombineDocumentInputFormat format = new CombineDocumentInputFormat();
+			format.configure(job);
+			CombineFileSplit split = new CombineFileSplit(job, paths, new long[paths.length], lengths, new String[0]);
+			RecordReader<Text, Text> reader = format.getRecordReader(split, job, Reporter.NULL);
+			Text key = reader.createKey();
+			Text value = reader.createValue();
+			for (int i = 0; i < contents.length; i++) {
+				assertTrue(reader.next(key, value));
+				assertEquals(paths[i].toString(), key.toString());
+				assertEquals(paths[i] + ":" + contents[i], value.toString());
+			}
+			assertFalse(reader.next(key, value));
+			assertEquals(1f, reader.getProgress(), 0f);
+			reader.close();
+		} finally {
+			fs.delete(dir, true);
+		}
+	}
+}
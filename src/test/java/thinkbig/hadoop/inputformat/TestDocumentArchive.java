@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Test;
+
+/**
+ * Compacts a directory of documents with DocumentCompactor, in the local job runner, into archives of many small
+ * compressed blocks, and reads them back every way
+ */
+@SuppressWarnings("deprecation")
+public class TestDocumentArchive extends TestCase {
+	private static final int DOCUMENTS = 60;
+
+	private JobConf conf;
+	private FileSystem fs;
+	private Path dir;
+	private Path archive;
+	// contents of each document, by file name
+	private Map<String, String> documents;
+
+	@Override
+	protected void setUp() throws Exception {
+		conf = new JobConf();
+		conf.set("mapred.job.tracker", "local");
+		// a block every few documents, and a few archive files
+		conf.setInt("io.seqfile.compress.blocksize", 1000);
+		conf.setLong(CombineDocumentInputFormat.MAX_SPLIT_SIZE, 12000);
+		fs = FileSystem.getLocal(conf);
+		dir = new Path(new File(System.getProperty("java.io.tmpdir"), "TestDocumentArchive-" + System.nanoTime())
+				.getAbsolutePath());
+		archive = new Path(dir, "archive");
+		documents = new TreeMap<String, String>();
+		Random random = new Random(42);
+		for (int i = 0; i < DOCUMENTS; i++) {
+			StringBuilder contents = new StringBuilder("document " + i + ":");
+			for (int n = random.nextInt(600); n > 0; n--) {
+				contents.append((char) ('a' + random.nextInt(26)));
+			}
+			String name = String.format("doc%03d", i);
+			documents.put(name, contents.toString());
+			FSDataOutputStream out = fs.create(new Path(new Path(dir, "in"), name));
+			out.write(contents.toString().getBytes("UTF-8"));
+			out.close();
+		}
+		assertEquals(0, ToolRunner.run(conf, new DocumentCompactor(), new String[] { archive.toString(),
+				new Path(dir, "in").toString() }));
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		fs.delete(dir, true);
+	}
+
+	/**
+	 * Test looking up every document, in random order, across blocks and archive files
+	 */
+	@Test
+	public void testLookup() throws IOException {
+		assertTrue(fs.listStatus(new Path(archive, DocumentArchiveOutputFormat.INDEX_DIR)).length > 1);
+		DocumentArchive documentArchive = new DocumentArchive(archive, conf);
+		try {
+			assertEquals(DOCUMENTS, documentArchive.size());
+			List<String> names = new ArrayList<String>(documents.keySet());
+			Collections.shuffle(names, new Random(7));
+			Text value = new Text();
+			for (String name : names) {
+				String path = fs.makeQualified(new Path(new Path(dir, "in"), name)).toString();
+				assertTrue(path, documentArchive.contains(path));
+				assertTrue(path, documentArchive.get(path, value));
+				assertEquals(documents.get(name), value.toString());
+			}
+			assertFalse(documentArchive.contains("file:/missing"));
+			assertFalse(documentArchive.get("file:/missing", value));
+		} finally {
+			documentArchive.close();
+		}
+	}
+
+	// every record of the archive, read with DocumentArchiveInputFormat, as file name to value
+	private Map<String, String> read(JobConf job) throws IOException {
+		DocumentArchiveInputFormat format = new DocumentArchiveInputFormat();
+		format.configure(job);
+		FileInputFormat.setInputPaths(job, archive);
+		Map<String, String> records = new TreeMap<String, String>();
+		for (InputSplit split : format.getSplits(job, 1)) {
+			RecordReader<Text, Text> reader = format.getRecordReader(split, job, Reporter.NULL);
+			Text key = reader.createKey();
+			Text value = reader.createValue();
+			while (reader.next(key, value)) {
+				assertNull(records.put(new Path(key.toString()).getName(), value.toString()));
+			}
+			reader.close();
+		}
+		return records;
+	}
+
+	/**
+	 * Test that the input format reads every document once
+	 */
+	@Test
+	public void testInputFormat() throws IOException {
+		assertEquals(documents, read(new JobConf(conf)));
+	}
+
+	/**
+	 * Test that the input format prepends keys as DocumentInputFormat does
+	 */
+	@Test
+	public void testPrependKey() throws IOException {
+		JobConf job = new JobConf(conf);
+		job.set("docinput.prepend.key", "\t");
+		Map<String, String> records = read(job);
+		assertEquals(documents.keySet(), records.keySet());
+		for (Map.Entry<String, String> record : records.entrySet()) {
+			String path = fs.makeQualified(new Path(new Path(dir, "in"), record.getKey())).toString();
+			assertEquals(path + "\t" + documents.get(record.getKey()), record.getValue());
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class TestDocumentBuffer extends TestCase {
+
+	private static byte[] data(int size) {
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) i;
+		}
+		return data;
+	}
+
+	/**
+	 * Test that a document is read whole whether the size estimate is exact, short or missing
+	 */
+	@Test
+	public void testReadFully() throws IOException {
+		byte[] doc = data(100000);
+		for (long estimate : new long[] { doc.length, 10, 0 }) {
+			DocumentBuffer buffer = new DocumentBuffer();
+			assertTrue(buffer.readFully(new ByteArrayInputStream(doc), estimate, Long.MAX_VALUE));
+			assertEquals(doc.length, buffer.getLength());
+			assertTrue(Arrays.equals(doc, Arrays.copyOf(buffer.getBytes(), buffer.getLength())));
+		}
+	}
+
+	/**
+	 * Test that the buffer is reused, keeping a prefix, and that an exact estimate doesn't force a resize
+	 */
+	@Test
+	public void testReuse() throws IOException {
+		DocumentBuffer buffer = new DocumentBuffer();
+		buffer.append("key\t".getBytes());
+		assertTrue(buffer.readFully(new ByteArrayInputStream(data(1000)), 1000, Long.MAX_VALUE));
+		assertEquals(1004, buffer.getLength());
+		assertEquals('k', buffer.getBytes()[0]);
+		byte[] array = buffer.getBytes();
+		buffer.reset();
+		assertTrue(buffer.readFully(new ByteArrayInputStream(data(500)), 500, Long.MAX_VALUE));
+		assertEquals(500, buffer.getLength());
+		assertSame(array, buffer.getBytes());
+	}
+
+	/**
+	 * Test that documents over the maximum size are rejected without buffering them whole
+	 */
+	@Test
+	public void testMaxSize() throws IOException {
+		DocumentBuffer buffer = new DocumentBuffer();
+		assertTrue(buffer.readFully(new ByteArrayInputStream(data(1000)), 0, 1000));
+		buffer.reset();
+		assertFalse(buffer.readFully(new ByteArrayInputStream(data(100000)), 0, 1000));
+		assertTrue(buffer.getBytes().length <= 1001);
+	}
+
+	/**
+	 * Test reading a header, from documents longer and shorter than it
+	 */
+	@Test
+	public void testReadUpTo() throws IOException {
+		DocumentBuffer buffer = new DocumentBuffer();
+		buffer.append("key\t".getBytes());
+		assertEquals(100, buffer.readUpTo(new ByteArrayInputStream(data(1000)), 100));
+		assertEquals(104, buffer.getLength());
+		assertEquals(data(1000)[99], buffer.getBytes()[103]);
+		buffer.reset();
+		assertEquals(50, buffer.readUpTo(new ByteArrayInputStream(data(50)), 100));
+		assertEquals(50, buffer.getLength());
+	}
+}
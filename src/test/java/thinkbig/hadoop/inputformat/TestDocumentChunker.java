@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class TestDocumentChunker extends TestCase {
+
+	private static String chunk(DocumentChunker chunker) {
+		return new String(chunker.getBytes(), 0, chunker.getLength());
+	}
+
+	/**
+	 * Test fixed size chunks, including a last chunk that fills the chunk exactly
+	 */
+	@Test
+	public void testFixedChunks() throws IOException {
+		InputStream in = new ByteArrayInputStream("abcdefghij".getBytes());
+		DocumentChunker chunker = new DocumentChunker(5, null);
+		assertTrue(chunker.next(in));
+		assertEquals("abcde", chunk(chunker));
+		assertEquals(0, chunker.getOffset());
+		assertFalse(chunker.isLast());
+		assertTrue(chunker.next(in));
+		assertEquals("fghij", chunk(chunker));
+		assertEquals(1, chunker.getIndex());
+		assertEquals(5, chunker.getOffset());
+		assertTrue(chunker.isLast());
+		assertFalse(chunker.next(in));
+	}
+
+	/**
+	 * Test that chunks end after the last delimiter that fits, and are cut at the chunk size if none does
+	 */
+	@Test
+	public void testDelimitedChunks() throws IOException {
+		InputStream in = new ByteArrayInputStream("ab\ncd\nefghijkl\nm".getBytes());
+		DocumentChunker chunker = new DocumentChunker(7, DocumentChunker.parseDelimiter("\\n"));
+		assertTrue(chunker.next(in));
+		assertEquals("ab\ncd\n", chunk(chunker));
+		assertTrue(chunker.next(in));
+		assertEquals("efghijk", chunk(chunker));
+		assertEquals(6, chunker.getOffset());
+		assertTrue(chunker.next(in));
+		assertEquals("l\nm", chunk(chunker));
+		assertTrue(chunker.isLast());
+		assertFalse(chunker.next(in));
+	}
+
+	/**
+	 * Test that an empty document is a single, empty, last chunk
+	 */
+	@Test
+	public void testEmptyDocument() throws IOException {
+		InputStream in = new ByteArrayInputStream(new byte[0]);
+		DocumentChunker chunker = new DocumentChunker(5, null);
+		assertTrue(chunker.next(in));
+		assertEquals(0, chunker.getLength());
+		assertTrue(chunker.isLast());
+		assertFalse(chunker.next(in));
+	}
+
+	/**
+	 * Test that chunk keys survive a round trip through Text, even with a tab in the path
+	 */
+	@Test
+	public void testChunkKey() {
+		DocumentChunkKey key = DocumentChunkKey.parse(new Text(new DocumentChunkKey("/in/a\tb", 3, 1234L, true).toString()));
+		assertEquals("/in/a\tb", key.getPath());
+		assertEquals(3, key.getIndex());
+		assertEquals(1234L, key.getOffset());
+		assertTrue(key.isLast());
+	}
+}
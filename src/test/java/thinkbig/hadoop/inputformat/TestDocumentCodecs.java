@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.zlib.BuiltInZlibInflater;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+
+@SuppressWarnings("deprecation")
+public class TestDocumentCodecs extends TestCase {
+	private JobConf job;
+	private FileSystem fs;
+	private Path dir;
+
+	/**
+	 * A zlib decompressor that counts its instances
+	 */
+	public static class CountingDecompressor extends BuiltInZlibInflater {
+		static int created = 0;
+
+		public CountingDecompressor() {
+			synchronized (CountingDecompressor.class) {
+				created++;
+			}
+		}
+	}
+
+	/**
+	 * The default codec for files ending .counted, decompressing with CountingDecompressor
+	 */
+	public static class CountingCodec extends DefaultCodec {
+		@Override
+		public Class<? extends Decompressor> getDecompressorType() {
+			return CountingDecompressor.class;
+		}
+
+		@Override
+		public Decompressor createDecompressor() {
+			return new CountingDecompressor();
+		}
+
+		@Override
+		public String getDefaultExtension() {
+			return ".counted";
+		}
+	}
+
+	@Override
+	protected void setUp() throws IOException {
+		job = new JobConf();
+		job.set("io.compression.codecs", "org.apache.hadoop.io.compress.GzipCodec,"
+				+ "org.apache.hadoop.io.compress.DefaultCodec," + CountingCodec.class.getName());
+		fs = FileSystem.getLocal(job);
+		dir = new Path(new File(System.getProperty("java.io.tmpdir"), "TestDocumentCodecs-" + System.nanoTime())
+				.getAbsolutePath());
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		fs.delete(dir, true);
+	}
+
+	private Path write(String name, String contents) throws IOException {
+		Path path = new Path(dir, name);
+		OutputStream out = fs.create(path);
+		try {
+			out = name.endsWith(".gz") ? new GZIPOutputStream(out) : new DeflaterOutputStream(out);
+			out.write(contents.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return path;
+	}
+
+	private String read(DocumentInputFormat format, Path path) throws IOException {
+		FileSplit split = new FileSplit(path, 0, fs.getFileStatus(path).getLen(), new String[0]);
+		RecordReader<Text, Text> reader = format.getRecordReader(split, job, Reporter.NULL);
+		try {
+			Text key = reader.createKey();
+			Text value = reader.createValue();
+			assertTrue(reader.next(key, value));
+			assertEquals(path.toString(), key.toString());
+			assertFalse(reader.next(key, value));
+			return value.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Test that the codec factory is built once per list of codecs, not per configuration
+	 */
+	@Test
+	public void testCodecPerCodecList() {
+		Path path = new Path("/in/doc.gz");
+		CompressionCodec codec = DocumentCodecs.getCodec(path, job);
+		assertNotNull(codec);
+		assertSame(codec, DocumentCodecs.getCodec(new Path("/other/doc.gz"), job));
+		assertSame(codec, DocumentCodecs.getCodec(path, new JobConf(job)));
+		JobConf gzipOnly = new JobConf(job);
+		gzipOnly.set("io.compression.codecs", "org.apache.hadoop.io.compress.GzipCodec");
+		assertNotSame(codec, DocumentCodecs.getCodec(path, gzipOnly));
+		assertNull(DocumentCodecs.getCodec(new Path("/in/doc.counted"), gzipOnly));
+		assertNull(DocumentCodecs.getCodec(new Path("/in/doc.txt"), job));
+	}
+
+	/**
+	 * Test that looking up codecs doesn't keep the configuration alive once the caller lets go of it
+	 */
+	@Test
+	public void testConfigurationCollected() throws InterruptedException {
+		JobConf conf = new JobConf(job);
+		conf.set("io.compression.codecs", CountingCodec.class.getName());
+		assertNotNull(DocumentCodecs.getCodec(new Path("/in/doc.counted"), conf));
+		WeakReference<JobConf> ref = new WeakReference<JobConf>(conf);
+		conf = null;
+		for (int i = 0; i < 50 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(ref.get());
+	}
+
+	/**
+	 * Test that compressed documents read one after another share a single pooled decompressor, which each reader
+	 * returns when it closes
+	 */
+	@Test
+	public void testDecompressorReused() throws IOException {
+		DocumentInputFormat format = new DocumentInputFormat();
+		format.configure(job);
+		for (int i = 0; i < 5; i++) {
+			assertEquals("document " + i, read(format, write("doc" + i + ".gz", "document " + i)));
+		}
+		int created = CountingDecompressor.created;
+		for (int i = 0; i < 5; i++) {
+			assertEquals("counted " + i, read(format, write("doc" + i + ".counted", "counted " + i)));
+		}
+		assertTrue(CountingDecompressor.created - created <= 1);
+
+		// the decompressor is back in the pool, reset, and is handed out again
+		CompressionCodec codec = DocumentCodecs.getCodec(new Path(dir, "doc0.counted"), job);
+		Decompressor decompressor = DocumentCodecs.borrowDecompressor(codec);
+		assertTrue(decompressor instanceof CountingDecompressor);
+		assertFalse(decompressor.finished());
+		DocumentCodecs.returnDecompressor(decompressor);
+		assertTrue(CountingDecompressor.created - created <= 1);
+		assertSame(decompressor, DocumentCodecs.borrowDecompressor(codec));
+		DocumentCodecs.returnDecompressor(decompressor);
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class TestDocumentFilter extends TestCase {
+
+	private static FileStatus file(String path, long length, long modificationTime) {
+		return new FileStatus(length, false, 1, 64 << 20, modificationTime, new Path(path));
+	}
+
+	@Test
+	public void testAcceptsAll() {
+		DocumentFilter filter = new DocumentFilter(new Configuration());
+		assertTrue(filter.acceptsAll());
+		assertTrue(filter.accept(file("/in/a.xml", 0, 0)));
+	}
+
+	/**
+	 * Test size and modification time bounds, including their edges
+	 */
+	@Test
+	public void testBounds() {
+		Configuration conf = new Configuration();
+		conf.setLong(DocumentFilter.MIN_SIZE, 10);
+		conf.setLong(DocumentFilter.MAX_SIZE, 100);
+		conf.setLong(DocumentFilter.MODIFIED_AFTER, 1000);
+		conf.setLong(DocumentFilter.MODIFIED_BEFORE, 2000);
+		DocumentFilter filter = new DocumentFilter(conf);
+		assertFalse(filter.acceptsAll());
+		assertTrue(filter.accept(file("/in/a", 10, 1000)));
+		assertTrue(filter.accept(file("/in/a", 100, 1999)));
+		assertFalse(filter.accept(file("/in/a", 9, 1500)));
+		assertFalse(filter.accept(file("/in/a", 101, 1500)));
+		assertFalse(filter.accept(file("/in/a", 50, 999)));
+		assertFalse(filter.accept(file("/in/a", 50, 2000)));
+	}
+
+	@Test
+	public void testPatterns() {
+		Configuration conf = new Configuration();
+		conf.set(DocumentFilter.INCLUDE, "\\.xml$");
+		conf.set(DocumentFilter.EXCLUDE, "/tmp/");
+		DocumentFilter filter = new DocumentFilter(conf);
+		FileStatus[] files = { file("/in/a.xml", 1, 1), file("/in/b.txt", 1, 1), file("/in/tmp/c.xml", 1, 1),
+				file("/in/d.xml", 1, 1) };
+		FileStatus[] accepted = filter.filter(files);
+		assertEquals(2, accepted.length);
+		assertEquals("a.xml", accepted[0].getPath().getName());
+		assertEquals("d.xml", accepted[1].getPath().getName());
+	}
+}
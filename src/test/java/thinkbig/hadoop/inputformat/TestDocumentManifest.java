@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+public class TestDocumentManifest extends TestCase {
+	private Configuration conf;
+	private Path dir;
+
+	@Override
+	protected void setUp() throws IOException {
+		conf = new Configuration();
+		dir = new Path(new File(System.getProperty("java.io.tmpdir"), "TestDocumentManifest-" + System.nanoTime())
+				.getAbsolutePath());
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		FileSystem.getLocal(conf).delete(dir, true);
+	}
+
+	private static FileStatus file(String name, long length, long modificationTime) {
+		return new FileStatus(length, false, 1, 64 << 20, modificationTime, new Path("file:/in/" + name));
+	}
+
+	private static String names(FileStatus[] files) {
+		StringBuilder names = new StringBuilder();
+		for (FileStatus file : files) {
+			names.append(file.getPath().getName()).append(' ');
+		}
+		return names.toString().trim();
+	}
+
+	private void run(DocumentManifest manifest, FileStatus... files) throws IOException {
+		manifest.commit(manifest.writePending(manifest.filter(files)));
+	}
+
+	/**
+	 * Test that committed files are skipped unless they changed, and that uncommitted runs are not recorded
+	 */
+	@Test
+	public void testFilter() throws IOException {
+		DocumentManifest manifest = new DocumentManifest(dir, conf);
+		FileStatus[] first = { file("b", 10, 1000), file("a", 20, 1000) };
+		assertEquals("b a", names(manifest.filter(first)));
+		run(manifest, first);
+		assertEquals("", names(manifest.filter(first)));
+
+		// a pending run that never commits leaves the manifest as it was
+		manifest.writePending(new FileStatus[] { file("c", 5, 1000) });
+		FileStatus[] second = { file("a", 20, 2000), file("b", 10, 1000), file("c", 5, 1000) };
+		assertEquals("a c", names(manifest.filter(second)));
+		run(manifest, second);
+		assertEquals("", names(manifest.filter(second)));
+		assertEquals("a", names(manifest.filter(new FileStatus[] { file("a", 20, 1000) })));
+	}
+
+	/**
+	 * Test that merging segments keeps the newest entry of each path
+	 */
+	@Test
+	public void testMerge() throws IOException {
+		conf.setInt(DocumentManifest.MAX_SEGMENTS, 2);
+		DocumentManifest manifest = new DocumentManifest(dir, conf);
+		for (int i = 1; i <= 5; i++) {
+			run(manifest, file("a", 10, i), file("n" + i, 1, 1));
+		}
+		assertTrue(FileSystem.getLocal(conf).listStatus(dir).length <= 3);
+		assertEquals("", names(manifest.filter(new FileStatus[] { file("a", 10, 5), file("n1", 1, 1),
+				file("n5", 1, 1) })));
+		assertEquals("a", names(manifest.filter(new FileStatus[] { file("a", 10, 4) })));
+	}
+
+	private int pending() throws IOException {
+		FileStatus[] pending = FileSystem.getLocal(conf).listStatus(new Path(dir, "_pending"));
+		return pending == null ? 0 : pending.length;
+	}
+
+	/**
+	 * Test that aborting deletes the pending segment and that a commit deletes pending segments planned before it
+	 */
+	@Test
+	public void testCleanup() throws IOException, InterruptedException {
+		DocumentManifest manifest = new DocumentManifest(dir, conf);
+		String aborted = manifest.writePending(new FileStatus[] { file("a", 10, 1000) });
+		assertEquals(1, pending());
+		manifest.abort(aborted);
+		assertEquals(0, pending());
+
+		manifest.writePending(new FileStatus[] { file("b", 10, 1000) });
+		Thread.sleep(5);
+		String committed = manifest.writePending(new FileStatus[] { file("c", 10, 1000) });
+		Thread.sleep(5);
+		manifest.writePending(new FileStatus[] { file("d", 10, 1000) });
+		assertEquals(3, pending());
+		manifest.commit(committed);
+		// the later segment may belong to a run that is still going
+		assertEquals(1, pending());
+		assertEquals("b d", names(manifest.filter(new FileStatus[] { file("b", 10, 1000), file("c", 10, 1000),
+				file("d", 10, 1000) })));
+	}
+
+	/**
+	 * Test that listing the input leaves the manifest alone and that planning splits records a pending segment
+	 */
+	@Test
+	public void testSplitPlanning() throws IOException {
+		Path in = new Path(dir, "in");
+		FileSystem fs = FileSystem.getLocal(conf);
+		fs.create(new Path(in, "a")).close();
+		JobConf job = new JobConf(conf);
+		FileInputFormat.setInputPaths(job, in);
+		job.set(DocumentManifest.MANIFEST_DIR, new Path(dir, "manifest").toString());
+		DocumentInputFormat format = new DocumentInputFormat();
+		format.configure(job);
+		assertEquals(1, format.listStatus(job).length);
+		assertFalse(fs.exists(new Path(dir, "manifest/_pending")));
+		assertNull(job.get(DocumentManifest.PENDING_SEGMENT));
+
+		assertEquals(1, format.getSplits(job, 1).length);
+		assertEquals(1, fs.listStatus(new Path(dir, "manifest/_pending")).length);
+		DocumentManifest.abort(job);
+		assertEquals(0, fs.listStatus(new Path(dir, "manifest/_pending")).length);
+	}
+}
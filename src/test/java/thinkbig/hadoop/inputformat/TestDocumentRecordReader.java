@@ -0,0 +1,450 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+
+@SuppressWarnings("deprecation")
+public class TestDocumentRecordReader extends TestCase {
+	private JobConf job;
+	private FileSystem fs;
+	private Path dir;
+
+	@Override
+	protected void setUp() throws IOException {
+		job = new JobConf();
+		fs = FileSystem.getLocal(job);
+		dir = new Path(new File(System.getProperty("java.io.tmpdir"), "TestDocumentRecordReader-" + System.nanoTime())
+				.getAbsolutePath());
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		fs.delete(dir, true);
+	}
+
+	private Path write(String name, byte[] contents) throws IOException {
+		Path path = new Path(dir, name);
+		OutputStream out = fs.create(path);
+		try {
+			if (name.endsWith(".gz")) {
+				out = new GZIPOutputStream(out);
+			}
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+		return path;
+	}
+
+	private FileSplit split(Path path) throws IOException {
+		return new FileSplit(path, 0, fs.getFileStatus(path).getLen(), new String[0]);
+	}
+
+	private static byte[] data(int size) {
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) (i * 31 + i / 251);
+		}
+		return data;
+	}
+
+	/**
+	 * read the single document of a file
+	 * @return the value of its record
+	 */
+	private Text readDocument(JobConf conf, Path path) throws IOException {
+		DocumentInputFormat format = new DocumentInputFormat();
+		format.configure(conf);
+		RecordReader<Text, Text> reader = format.getRecordReader(split(path), conf, Reporter.NULL);
+		try {
+			Text key = reader.createKey();
+			Text value = reader.createValue();
+			assertTrue(reader.next(key, value));
+			assertEquals(path.toString(), key.toString());
+			assertFalse(reader.next(key, value));
+			return value;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static byte[] bytes(Text text) {
+		return Arrays.copyOf(text.getBytes(), text.getLength());
+	}
+
+	/**
+	 * read every record of a file
+	 * @return the key and value of each record
+	 */
+	private List<Text[]> readRecords(JobConf conf, Path path) throws IOException {
+		DocumentInputFormat format = new DocumentInputFormat();
+		format.configure(conf);
+		RecordReader<Text, Text> reader = format.getRecordReader(split(path), conf, Reporter.NULL);
+		try {
+			List<Text[]> records = new ArrayList<Text[]>();
+			Text key = reader.createKey();
+			Text value = reader.createValue();
+			while (reader.next(key, value)) {
+				records.add(new Text[] { new Text(key), new Text(value) });
+			}
+			assertEquals(1f, reader.getProgress());
+			return records;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		int length = 0;
+		for (byte[] part : parts) {
+			length += part.length;
+		}
+		byte[] all = new byte[length];
+		int offset = 0;
+		for (byte[] part : parts) {
+			System.arraycopy(part, 0, all, offset, part.length);
+			offset += part.length;
+		}
+		return all;
+	}
+
+	/**
+	 * Test that memory mapped documents read the same as streamed ones, with and without a prepended key
+	 */
+	@Test
+	public void testMapped() throws IOException {
+		Path path = write("doc", data(300000));
+		Path empty = write("empty", new byte[0]);
+		JobConf mapped = new JobConf(job);
+		mapped.setBoolean(DocumentInputFormat.MAP_LOCAL_FILES, true);
+		mapped.setLong(DocumentInputFormat.MAP_MIN_SIZE, 0);
+		for (String prependKey : new String[] { "", "\t" }) {
+			job.set("docinput.prepend.key", prependKey);
+			mapped.set("docinput.prepend.key", prependKey);
+			for (Path file : new Path[] { path, empty }) {
+				byte[] expected = bytes(readDocument(job, file));
+				assertTrue(Arrays.equals(expected, bytes(readDocument(mapped, file))));
+			}
+		}
+		assertEquals(300000 + path.toString().length() + 1, readDocument(mapped, path).getLength());
+	}
+
+	/**
+	 * Test mapping a document directly, and that the size limit is applied before mapping
+	 */
+	@Test
+	public void testMappedDocuments() throws IOException {
+		byte[] contents = data(100000);
+		File file = MappedDocuments.localFile(fs, write("doc", contents));
+		assertNotNull(file);
+		Text value = new Text("unchanged");
+		assertEquals(-1, MappedDocuments.read(file, new byte[0], contents.length - 1, value));
+		assertEquals("unchanged", value.toString());
+		assertEquals(contents.length, MappedDocuments.read(file, "key:".getBytes(), contents.length, value));
+		assertEquals("key:", new String(bytes(value), 0, 4, "UTF-8"));
+		assertTrue(Arrays.equals(contents, Arrays.copyOfRange(bytes(value), 4, value.getLength())));
+		// reading many documents doesn't pile up mappings
+		for (int i = 0; i < 1000; i++) {
+			MappedDocuments.read(file, new byte[0], contents.length, value);
+		}
+		assertTrue(Arrays.equals(contents, bytes(value)));
+	}
+
+	/**
+	 * Test that a compressed document isn't buffered up front at its full estimated size, yet is read whole
+	 */
+	@Test
+	public void testCompressedSizeEstimate() throws IOException {
+		byte[] contents = new byte[100000];
+		for (int i = 0; i < contents.length; i++) {
+			contents[i] = (byte) ('a' + i % 26);
+		}
+		Path path = write("doc.gz", contents);
+		job.setFloat(DocumentInputFormat.COMPRESSED_SIZE_ESTIMATE, 1e9f);
+		DocumentInputFormat format = new DocumentInputFormat();
+		format.configure(job);
+		DocumentBuffer buffer = new DocumentBuffer();
+		DocumentInputFormat.FullDocRecordReader reader = format.new FullDocRecordReader(split(path), job, buffer,
+				null);
+		Text key = reader.createKey();
+		Text value = reader.createValue();
+		assertTrue(reader.next(key, value));
+		assertEquals(new String(contents, "UTF-8"), value.toString());
+		assertTrue(buffer.getBytes().length <= DocumentInputFormat.MAX_ESTIMATED_SIZE + 1);
+		assertFalse(reader.next(key, value));
+		reader.close();
+	}
+
+	/**
+	 * Test that range reads, with ranges smaller than the document and an uneven tail, read the same as a sequential
+	 * read, and that one reader's threads are reused across documents
+	 */
+	@Test
+	public void testRangeReads() throws IOException {
+		Path path = write("doc", data(10500));
+		JobConf ranges = new JobConf(job);
+		ranges.setInt(DocumentInputFormat.PARALLEL_READ_THREADS, 3);
+		ranges.setLong(DocumentInputFormat.PARALLEL_READ_RANGE_SIZE, 1000);
+		assertTrue(Arrays.equals(bytes(readDocument(job, path)), bytes(readDocument(ranges, path))));
+
+		Path other = write("other", data(2001));
+		RangeReads reads = new RangeReads(1000, 3);
+		try {
+			for (Path file : new Path[] { path, other, path }) {
+				DocumentBuffer buffer = new DocumentBuffer();
+				buffer.append("key".getBytes());
+				long length = fs.getFileStatus(file).getLen();
+				reads.read(fs, file, length, buffer);
+				Text value = new Text();
+				value.set(buffer.getBytes(), 3, buffer.getLength() - 3);
+				assertTrue(Arrays.equals(data((int) length), bytes(value)));
+			}
+		} finally {
+			reads.close();
+		}
+	}
+
+	/**
+	 * A reporter that keeps its counters
+	 */
+	private static class CountingReporter implements Reporter {
+		private final Counters counters = new Counters();
+
+		@Override
+		public void progress() {
+		}
+
+		@Override
+		public void setStatus(String status) {
+		}
+
+		@Override
+		public Counters.Counter getCounter(Enum<?> name) {
+			return counters.findCounter(name);
+		}
+
+		@Override
+		public Counters.Counter getCounter(String group, String name) {
+			return counters.findCounter(group, name);
+		}
+
+		@Override
+		public void incrCounter(Enum<?> key, long amount) {
+			counters.incrCounter(key, amount);
+		}
+
+		@Override
+		public void incrCounter(String group, String counter, long amount) {
+			counters.incrCounter(group, counter, amount);
+		}
+
+		@Override
+		public InputSplit getInputSplit() {
+			throw new UnsupportedOperationException();
+		}
+
+		long get(Enum<?> name) {
+			return counters.getCounter(name);
+		}
+	}
+
+	/**
+	 * Test that of two identical documents only the first is emitted, and that the second is counted as a duplicate
+	 * rather than as a document
+	 */
+	@Test
+	public void testDedup() throws IOException {
+		byte[] contents = data(5000);
+		job.setBoolean(DocumentInputFormat.DEDUP, true);
+		DocumentInputFormat format = new DocumentInputFormat();
+		format.configure(job);
+		CountingReporter reporter = new CountingReporter();
+		int emitted = 0;
+		for (Path path : new Path[] { write("a", contents), write("b", contents) }) {
+			RecordReader<Text, Text> reader = format.getRecordReader(split(path), job, reporter);
+			try {
+				Text key = reader.createKey();
+				Text value = reader.createValue();
+				while (reader.next(key, value)) {
+					assertTrue(key.toString().startsWith(new Path(dir, "a").toString() + "\t"));
+					assertTrue(Arrays.equals(contents, bytes(value)));
+					emitted++;
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		assertEquals(1, emitted);
+		assertEquals(1, reporter.get(DocumentInputFormat.DocumentCounter.DOCUMENTS));
+		assertEquals(1, reporter.get(DocumentInputFormat.DocumentCounter.DOCUMENTS_UNDER_64KB));
+		assertEquals(1, reporter.get(DocumentInputFormat.DocumentCounter.DUPLICATE_DOCUMENTS));
+		assertEquals(contents.length, reporter.get(DocumentInputFormat.DocumentCounter.DUPLICATE_BYTES));
+		assertEquals(2 * contents.length, reporter.get(DocumentInputFormat.DocumentCounter.DECOMPRESSED_BYTES));
+	}
+
+	/**
+	 * Test that metadata mode emits the length and modification time without reading the document, and with
+	 * docinput.metadata.hash the hash of the bytes as stored
+	 */
+	@Test
+	public void testMetadata() throws IOException, NoSuchAlgorithmException {
+		Path path = write("doc.gz", data(20000));
+		FileStatus status = fs.getFileStatus(path);
+		String metadata = status.getLen() + "\t" + status.getModificationTime();
+		job.set(DocumentInputFormat.RECORD_MODE, "metadata");
+		List<Text[]> records = readRecords(job, path);
+		assertEquals(1, records.size());
+		assertEquals(path.toString(), records.get(0)[0].toString());
+		assertEquals(metadata, records.get(0)[1].toString());
+
+		MessageDigest md5 = MessageDigest.getInstance("MD5");
+		InputStream in = fs.open(path);
+		try {
+			byte[] chunk = new byte[4096];
+			for (int len = in.read(chunk); len != -1; len = in.read(chunk)) {
+				md5.update(chunk, 0, len);
+			}
+		} finally {
+			in.close();
+		}
+		job.set(DocumentInputFormat.METADATA_HASH, "MD5");
+		job.set("docinput.prepend.key", "|");
+		records = readRecords(job, path);
+		assertEquals(1, records.size());
+		assertEquals(path.toString(), records.get(0)[0].toString());
+		assertEquals(path + "|" + metadata + "\t" + Hex.encodeHexString(md5.digest()), records.get(0)[1].toString());
+	}
+
+	/**
+	 * Test that header mode emits only the first bytes of a compressed document, decompressed, after the prepended
+	 * key, and a document shorter than the header whole
+	 */
+	@Test
+	public void testHeader() throws IOException {
+		byte[] contents = data(100000);
+		Path path = write("doc.gz", contents);
+		Path small = write("small.gz", data(10));
+		job.set(DocumentInputFormat.RECORD_MODE, "header");
+		job.setInt(DocumentInputFormat.HEADER_SIZE, 1000);
+		List<Text[]> records = readRecords(job, path);
+		assertEquals(1, records.size());
+		assertEquals(path.toString(), records.get(0)[0].toString());
+		assertTrue(Arrays.equals(Arrays.copyOf(contents, 1000), bytes(records.get(0)[1])));
+		assertTrue(Arrays.equals(data(10), bytes(readRecords(job, small).get(0)[1])));
+
+		job.set("docinput.prepend.key", "|");
+		records = readRecords(job, path);
+		assertEquals(1, records.size());
+		assertTrue(Arrays.equals(concat((path + "|").getBytes("UTF-8"), Arrays.copyOf(contents, 1000)),
+				bytes(records.get(0)[1])));
+	}
+
+	/**
+	 * Test that a document larger than the chunk size, plain or compressed, is emitted as ordered chunks that put the
+	 * document back together, each keyed with its index and offset, and with the chunk key prepended if asked
+	 */
+	@Test
+	public void testChunks() throws IOException {
+		byte[] contents = data(10500);
+		job.setInt(DocumentInputFormat.CHUNK_SIZE, 4096);
+		for (Path path : new Path[] { write("doc", contents), write("doc.gz", contents) }) {
+			for (String prependKey : new String[] { "", "|" }) {
+				job.set("docinput.prepend.key", prependKey);
+				List<Text[]> records = readRecords(job, path);
+				assertEquals(3, records.size());
+				byte[] document = new byte[0];
+				for (int i = 0; i < records.size(); i++) {
+					DocumentChunkKey key = DocumentChunkKey.parse(records.get(i)[0]);
+					assertEquals(path.toString(), key.getPath());
+					assertEquals(i, key.getIndex());
+					assertEquals(i * 4096L, key.getOffset());
+					assertEquals(i == 2, key.isLast());
+					byte[] value = bytes(records.get(i)[1]);
+					byte[] prefix = prependKey.isEmpty() ? new byte[0] : (records.get(i)[0] + prependKey)
+							.getBytes("UTF-8");
+					assertTrue(Arrays.equals(prefix, Arrays.copyOf(value, prefix.length)));
+					document = concat(document, Arrays.copyOfRange(value, prefix.length, value.length));
+				}
+				assertTrue(Arrays.equals(contents, document));
+			}
+		}
+	}
+
+	/**
+	 * Test that with docinput.archive.entries set a zip is read through DocumentInputFormat an entry at a time, keyed
+	 * by archive path and entry name, that an empty entry is an empty record and that other files are read whole
+	 */
+	@Test
+	public void testArchiveEntries() throws IOException {
+		ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(zipped);
+		zip.putNextEntry(new ZipEntry("a.txt"));
+		zip.write("first".getBytes("UTF-8"));
+		zip.putNextEntry(new ZipEntry("dir/"));
+		zip.putNextEntry(new ZipEntry("dir/empty.txt"));
+		zip.putNextEntry(new ZipEntry("dir/b.bin"));
+		zip.write(data(70000));
+		zip.close();
+		Path path = write("docs.zip", zipped.toByteArray());
+		Path plain = write("plain.txt", "whole".getBytes("UTF-8"));
+		job.setBoolean(DocumentInputFormat.READ_ARCHIVE_ENTRIES, true);
+
+		for (String prependKey : new String[] { "", "|" }) {
+			job.set("docinput.prepend.key", prependKey);
+			List<Text[]> records = readRecords(job, path);
+			String[] names = { "a.txt", "dir/empty.txt", "dir/b.bin" };
+			byte[][] contents = { "first".getBytes("UTF-8"), new byte[0], data(70000) };
+			assertEquals(names.length, records.size());
+			for (int i = 0; i < names.length; i++) {
+				String key = path + DocumentInputFormat.ARCHIVE_ENTRY_SEPARATOR + names[i];
+				assertEquals(key, records.get(i)[0].toString());
+				byte[] prefix = prependKey.isEmpty() ? new byte[0] : (key + prependKey).getBytes("UTF-8");
+				assertTrue(names[i], Arrays.equals(concat(prefix, contents[i]), bytes(records.get(i)[1])));
+			}
+			records = readRecords(job, plain);
+			assertEquals(1, records.size());
+			assertEquals(plain.toString(), records.get(0)[0].toString());
+			assertEquals(prependKey.isEmpty() ? "whole" : plain + "|whole", records.get(0)[1].toString());
+		}
+	}
+}
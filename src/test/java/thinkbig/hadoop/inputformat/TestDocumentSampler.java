@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class TestDocumentSampler extends TestCase {
+
+	private static FileStatus[] files(String prefix, int n) {
+		FileStatus[] files = new FileStatus[n];
+		for (int i = 0; i < n; i++) {
+			files[i] = new FileStatus(1, false, 1, 64 << 20, 0, new Path(prefix + "/doc" + i));
+		}
+		return files;
+	}
+
+	private static Set<String> paths(FileStatus[] files) {
+		Set<String> paths = new HashSet<String>();
+		for (FileStatus file : files) {
+			paths.add(file.getPath().toUri().getPath());
+		}
+		return paths;
+	}
+
+	private static DocumentSampler sampler(String fraction, long seed, String stratum) {
+		Configuration conf = new Configuration();
+		conf.set(DocumentSampler.FRACTION, fraction);
+		conf.setLong(DocumentSampler.SEED, seed);
+		if (stratum != null) {
+			conf.set(DocumentSampler.STRATUM, stratum);
+		}
+		return new DocumentSampler(conf);
+	}
+
+	/**
+	 * Test that samples are about the right size, repeatable, independent of the file system's address, and change
+	 * with the seed
+	 */
+	@Test
+	public void testSample() {
+		FileStatus[] files = files("hdfs://nn1:8020/data", 2000);
+		Set<String> sample = paths(sampler("0.1", 7, null).sample(files));
+		assertTrue(sample.size() > 140 && sample.size() < 260);
+		assertEquals(sample, paths(sampler("0.1", 7, null).sample(files)));
+		assertEquals(sample, paths(sampler("0.1", 7, null).sample(files("hdfs://nn2:9000/data", 2000))));
+		assertFalse(sample.equals(paths(sampler("0.1", 8, null).sample(files))));
+		assertEquals(0, sampler("0", 7, null).sample(files).length);
+		assertTrue(sampler("1", 7, null).picksAll());
+	}
+
+	/**
+	 * Test that each stratum gets its share, and that a small stratum still gets a document
+	 */
+	@Test
+	public void testStratified() {
+		FileStatus[] large = files("/data/large", 1000);
+		FileStatus[] small = files("/data/small", 3);
+		FileStatus[] files = new FileStatus[large.length + small.length];
+		System.arraycopy(large, 0, files, 0, large.length);
+		System.arraycopy(small, 0, files, large.length, small.length);
+		FileStatus[] sample = sampler("0.05", 1, "^/data/([^/]+)/").sample(files);
+		int fromSmall = 0;
+		for (FileStatus file : sample) {
+			fromSmall += file.getPath().toString().startsWith("/data/small/") ? 1 : 0;
+		}
+		assertEquals(1, fromSmall);
+		assertEquals(51, sample.length);
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.junit.Test;
+
+@SuppressWarnings("deprecation")
+public class TestDocumentSplits extends TestCase {
+
+	/**
+	 * Test that hosts are ranked by the bytes of the whole file they hold, not by the first block
+	 */
+	@Test
+	public void testRankHosts() throws IOException {
+		BlockLocation[] blocks = {
+				new BlockLocation(null, new String[] { "a", "b" }, 0, 10),
+				new BlockLocation(null, new String[] { "b", "c" }, 10, 100),
+				new BlockLocation(null, new String[] { "c", "b" }, 110, 100) };
+		String[] hosts = DocumentSplits.rankHosts(blocks, 3);
+		assertEquals(3, hosts.length);
+		assertEquals("b", hosts[0]);
+		assertEquals("c", hosts[1]);
+		assertEquals("a", hosts[2]);
+	}
+
+	/**
+	 * Test that only the hosts holding the most bytes are kept, so a host with one block of a large document isn't
+	 * listed as a location of its split
+	 */
+	@Test
+	public void testRankHostsCapped() throws IOException {
+		BlockLocation[] blocks = {
+				new BlockLocation(null, new String[] { "a", "b" }, 0, 100),
+				new BlockLocation(null, new String[] { "a", "c" }, 100, 100),
+				new BlockLocation(null, new String[] { "b", "d" }, 200, 100),
+				new BlockLocation(null, new String[] { "e", "a" }, 300, 10) };
+		assertEquals("[a, b]", Arrays.toString(DocumentSplits.rankHosts(blocks, 2)));
+		assertEquals("[a]", Arrays.toString(DocumentSplits.rankHosts(blocks, 1)));
+		assertEquals("[a]", Arrays.toString(DocumentSplits.rankHosts(blocks, 0)));
+		assertEquals(0, DocumentSplits.rankHosts(new BlockLocation[0], 3).length);
+	}
+
+	/**
+	 * Test that the critical path is described without reordering the splits
+	 */
+	@Test
+	public void testDescribeCriticalPath() throws IOException {
+		InputSplit[] splits = { new FileSplit(new Path("/small"), 0, 10, new String[0]),
+				new FileSplit(new Path("/large"), 0, 1000, new String[0]),
+				new FileSplit(new Path("/medium"), 0, 100, new String[0]) };
+		String criticalPath = DocumentSplits.describeCriticalPath(splits);
+		assertEquals("/small", ((FileSplit) splits[0]).getPath().toString());
+		assertEquals("/large", ((FileSplit) splits[1]).getPath().toString());
+		assertEquals("/medium", ((FileSplit) splits[2]).getPath().toString());
+		assertTrue(criticalPath, criticalPath.startsWith("largest split 1000 bytes, 2.7 times the mean of 3 splits"));
+		assertEquals("no splits", DocumentSplits.describeCriticalPath(new InputSplit[0]));
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.hadoop.inputformat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.fs.*;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InvalidInputException;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+@SuppressWarnings("deprecation")
+public class TestSplitPlanner extends TestCase {
+	private static final long BLOCK_SIZE = 1024;
+
+	private JobConf job;
+	private FileSystem fs;
+	private Path dir;
+
+	/**
+	 * The local file system, reporting a block per BLOCK_SIZE bytes, on hosts h0, h1, ...
+	 */
+	public static class BlockedFileSystem extends LocalFileSystem {
+		@Override
+		public BlockLocation[] getFileBlockLocations(FileStatus file, long start, long len) {
+			int n = (int) ((file.getLen() + BLOCK_SIZE - 1) / BLOCK_SIZE);
+			BlockLocation[] blocks = new BlockLocation[n];
+			for (int i = 0; i < n; i++) {
+				String[] hosts = { "h" + i };
+				blocks[i] = new BlockLocation(hosts, hosts, i * BLOCK_SIZE, Math.min(BLOCK_SIZE, file.getLen() - i
+						* BLOCK_SIZE));
+			}
+			return blocks;
+		}
+	}
+
+	/**
+	 * Rejects paths whose names start with "d"
+	 */
+	public static class NoDFilter implements PathFilter {
+		@Override
+		public boolean accept(Path path) {
+			return !path.getName().startsWith("d");
+		}
+	}
+
+	@Override
+	protected void setUp() throws IOException {
+		job = new JobConf();
+		fs = FileSystem.getLocal(job);
+		dir = new Path(new File(System.getProperty("java.io.tmpdir"), "TestSplitPlanner-" + System.nanoTime())
+				.getAbsolutePath());
+		for (String name : new String[] { "in/a", "in/.hidden", "in/_SUCCESS", "in/sub/b", "in/sub/_tmp/c",
+				"in/sub/deeper/d" }) {
+			write(name, 10);
+		}
+		fs.mkdirs(new Path(dir, "in/empty"));
+		FileInputFormat.setInputPaths(job, new Path(dir, "in"));
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		fs.delete(dir, true);
+	}
+
+	private Path write(String name, int length) throws IOException {
+		Path path = new Path(dir, name);
+		FSDataOutputStream out = fs.create(path);
+		try {
+			out.write(new byte[length]);
+		} finally {
+			out.close();
+		}
+		return path;
+	}
+
+	// the names of the files listed, sorted
+	private String list(boolean recursive, int nThreads) throws IOException {
+		FileStatus[] files = SplitPlanner.listStatus(job, recursive, nThreads);
+		String[] names = new String[files.length];
+		for (int i = 0; i < files.length; i++) {
+			names[i] = files[i].getPath().getName();
+		}
+		Arrays.sort(names);
+		return Arrays.toString(names);
+	}
+
+	/**
+	 * Test listing directories and their subdirectories, skipping hidden files, on one thread and on several
+	 */
+	@Test
+	public void testListStatus() throws IOException {
+		assertEquals("[a, empty, sub]", list(false, 1));
+		assertEquals("[a, b, d]", list(true, 1));
+		assertEquals(list(false, 1), list(false, 4));
+		assertEquals(list(true, 1), list(true, 4));
+
+		FileInputFormat.setInputPaths(job, new Path(dir, "in/*"), new Path(dir, "in/sub/deeper/d"));
+		assertEquals("[a, b, d, d]", list(true, 3));
+		assertEquals("[a, b, d, deeper]", list(false, 3));
+	}
+
+	/**
+	 * Test that the job's input path filter applies to files and directories alike
+	 */
+	@Test
+	public void testUserFilter() throws IOException {
+		FileInputFormat.setInputPathFilter(job, NoDFilter.class);
+		assertEquals("[a, b]", list(true, 2));
+		assertEquals("[a, empty, sub]", list(false, 2));
+	}
+
+	/**
+	 * Test that a glob matching nothing and a missing input are both reported, together
+	 */
+	@Test
+	public void testInvalidInput() throws IOException {
+		FileInputFormat.setInputPaths(job, new Path(dir, "in/*.none"), new Path(dir, "missing"), new Path(dir, "in"));
+		try {
+			SplitPlanner.listStatus(job, true, 2);
+			fail("expected InvalidInputException");
+		} catch (InvalidInputException e) {
+			assertEquals(2, e.getProblems().size());
+			assertTrue(e.getProblems().get(0).getMessage(), e.getProblems().get(0).getMessage().contains(
+					"matches 0 files"));
+			assertTrue(e.getProblems().get(1).getMessage(), e.getProblems().get(1).getMessage().contains(
+					"does not exist"));
+		}
+	}
+
+	/**
+	 * Test that every block of a multi-block file is located, and that locations line up with the files
+	 */
+	@Test
+	public void testLocate() throws IOException {
+		job.setClass("fs.file.impl", BlockedFileSystem.class, FileSystem.class);
+		job.setBoolean("fs.file.impl.disable.cache", true);
+		FileStatus[] files = { fs.getFileStatus(write("big", (int) (3.5 * BLOCK_SIZE))),
+				fs.getFileStatus(write("small", 10)), fs.getFileStatus(write("empty", 0)) };
+		for (int nThreads : new int[] { 1, 3 }) {
+			BlockLocation[][] locations = SplitPlanner.locate(job, files, nThreads);
+			assertEquals(3, locations.length);
+			assertEquals(4, locations[0].length);
+			for (int i = 0; i < 4; i++) {
+				assertEquals(i * BLOCK_SIZE, locations[0][i].getOffset());
+				assertEquals("h" + i, locations[0][i].getHosts()[0]);
+			}
+			assertEquals(BLOCK_SIZE / 2, locations[0][3].getLength());
+			assertEquals(1, locations[1].length);
+			assertEquals(10, locations[1][0].getLength());
+			assertEquals(0, locations[2].length);
+		}
+		assertEquals("[h0]", Arrays.toString(DocumentSplits.rankHosts(SplitPlanner.locate(job, files, 1)[0],
+				files[0].getReplication())));
+	}
+}
@@ -0,0 +1,376 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+
+/**
+ * An in-memory stand-in for S3, for testing the S3 helpers without a bucket. It serves the listing (with pages,
+ * prefixes, delimiters and markers, as S3 does), HEAD and GET requests of an AmazonS3 client, counts every request,
+ * and can add latency and fail a fraction of requests. Requests it doesn't serve throw UnsupportedOperationException.
+ *
+ * Objects added with a size but no content cost a few dozen bytes each besides their key, so buckets of millions of
+ * keys fit in a test heap; GETs of them return zeros.
+ *
+ */
+public class InMemoryS3 implements InvocationHandler
+{
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
+	private static class StoredObject {
+		final long size;
+		final long lastModified;
+		final byte[] content;
+
+		StoredObject(long size, long lastModified, byte[] content) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.content = content;
+		}
+	}
+
+	private final Map<String, ConcurrentSkipListMap<String, StoredObject>> buckets =
+			new ConcurrentHashMap<String, ConcurrentSkipListMap<String, StoredObject>>();
+	private final Map<String, AtomicLong> calls = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicInteger concurrentCalls = new AtomicInteger();
+	private final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+	private final AmazonS3 client;
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	private long latencyMillis = 0;
+	private double errorRate = 0;
+	private Random errors = new Random(0);
+
+	public InMemoryS3() {
+		client = (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class<?>[] { AmazonS3.class },
+				this);
+	}
+
+	/**
+	 * @return a client backed by this store
+	 */
+	public AmazonS3 getClient() {
+		return client;
+	}
+
+	public InMemoryS3 createBucket(String bucketName) {
+		if (!buckets.containsKey(bucketName)) {
+			buckets.put(bucketName, new ConcurrentSkipListMap<String, StoredObject>());
+		}
+		return this;
+	}
+
+	/**
+	 * add an object, creating its bucket if need be
+	 * @param bucketName
+	 * @param key
+	 * @param content
+	 * @return this store
+	 */
+	public InMemoryS3 putObject(String bucketName, String key, byte[] content) {
+		createBucket(bucketName);
+		buckets.get(bucketName).put(key, new StoredObject(content.length, System.currentTimeMillis(), content));
+		return this;
+	}
+
+	/**
+	 * add an object of the given size without content, creating its bucket if need be
+	 * @param bucketName
+	 * @param key
+	 * @param size
+	 * @return this store
+	 */
+	public InMemoryS3 putObject(String bucketName, String key, long size) {
+		createBucket(bucketName);
+		buckets.get(bucketName).put(key, new StoredObject(size, System.currentTimeMillis(), null));
+		return this;
+	}
+
+	/**
+	 * remove an object, if it exists
+	 * @param bucketName
+	 * @param key
+	 * @return this store
+	 */
+	public InMemoryS3 deleteObject(String bucketName, String key) {
+		Map<String, StoredObject> bucket = buckets.get(bucketName);
+		if (bucket != null) {
+			bucket.remove(key);
+		}
+		return this;
+	}
+
+	/**
+	 * most keys and common prefixes returned by a listing request (S3 returns at most 1000)
+	 * @param pageSize
+	 * @return this store
+	 */
+	public InMemoryS3 setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	/**
+	 * delay every request
+	 * @param latencyMillis
+	 * @return this store
+	 */
+	public InMemoryS3 setLatency(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+		return this;
+	}
+
+	/**
+	 * fail a fraction of the requests with 503 SlowDown, chosen by a seeded random sequence
+	 * @param errorRate between 0 and 1
+	 * @param seed
+	 * @return this store
+	 */
+	public synchronized InMemoryS3 setErrorRate(double errorRate, long seed) {
+		this.errorRate = errorRate;
+		errors = new Random(seed);
+		return this;
+	}
+
+	/**
+	 * @param method name of an AmazonS3 method, e.g. listObjects
+	 * @return number of calls of the method
+	 */
+	public long getCalls(String method) {
+		AtomicLong count = calls.get(method);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * @return number of calls of all methods
+	 */
+	public long getTotalCalls() {
+		long total = 0;
+		for (AtomicLong count : calls.values()) {
+			total += count.get();
+		}
+		return total;
+	}
+
+	/**
+	 * @return the most requests that were in progress at once
+	 */
+	public int getMaxConcurrentCalls() {
+		return maxConcurrentCalls.get();
+	}
+
+	public void resetCalls() {
+		calls.clear();
+		maxConcurrentCalls.set(0);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (method.getDeclaringClass() == Object.class) {
+			if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			return "InMemoryS3 client";
+		}
+		if (name.equals("setEndpoint")) {
+			return null;
+		}
+		count(name);
+		int inProgress = concurrentCalls.incrementAndGet();
+		try {
+			int max;
+			while (inProgress > (max = maxConcurrentCalls.get()) && !maxConcurrentCalls.compareAndSet(max, inProgress)) {
+				// retry
+			}
+			if (latencyMillis > 0) {
+				Thread.sleep(latencyMillis);
+			}
+			injectError(name);
+			return serve(name, method.getParameterTypes(), args);
+		} finally {
+			concurrentCalls.decrementAndGet();
+		}
+	}
+
+	private void count(String method) {
+		AtomicLong count = calls.get(method);
+		if (count == null) {
+			synchronized (calls) {
+				count = calls.get(method);
+				if (count == null) {
+					count = new AtomicLong();
+					calls.put(method, count);
+				}
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	private synchronized void injectError(String method) {
+		if (errorRate > 0 && errors.nextDouble() < errorRate) {
+			throw error(503, "SlowDown", "Injected failure of " + method);
+		}
+	}
+
+	private Object serve(String name, Class<?>[] types, Object[] args) {
+		if (name.equals("doesBucketExist")) {
+			return buckets.containsKey((String) args[0]);
+		} else if (name.equals("listObjects")) {
+			if (types.length == 1 && types[0] == ListObjectsRequest.class) {
+				ListObjectsRequest request = (ListObjectsRequest) args[0];
+				return list(request.getBucketName(), request.getPrefix(), request.getMarker(), request.getDelimiter(),
+						request.getMaxKeys());
+			} else if (types.length == 1) {
+				return list((String) args[0], null, null, null, null);
+			} else if (types.length == 2) {
+				return list((String) args[0], (String) args[1], null, null, null);
+			}
+		} else if (name.equals("listNextBatchOfObjects") && types[0] == ObjectListing.class) {
+			ObjectListing previous = (ObjectListing) args[0];
+			if (!previous.isTruncated()) {
+				ObjectListing empty = new ObjectListing();
+				empty.setBucketName(previous.getBucketName());
+				empty.setPrefix(previous.getPrefix());
+				empty.setDelimiter(previous.getDelimiter());
+				empty.setMaxKeys(previous.getMaxKeys());
+				return empty;
+			}
+			return list(previous.getBucketName(), previous.getPrefix(), previous.getNextMarker(),
+					previous.getDelimiter(), previous.getMaxKeys());
+		} else if (name.equals("getObjectMetadata")) {
+			if (types.length == 2) {
+				return metadata((String) args[0], (String) args[1]);
+			} else if (types[0] == GetObjectMetadataRequest.class) {
+				GetObjectMetadataRequest request = (GetObjectMetadataRequest) args[0];
+				return metadata(request.getBucketName(), request.getKey());
+			}
+		} else if (name.equals("getObject")) {
+			if (types.length == 2 && types[0] == String.class) {
+				return get((String) args[0], (String) args[1]);
+			} else if (types.length == 1 && types[0] == GetObjectRequest.class) {
+				GetObjectRequest request = (GetObjectRequest) args[0];
+				return get(request.getBucketName(), request.getKey());
+			}
+		}
+		throw new UnsupportedOperationException("InMemoryS3 doesn't serve " + name + Arrays.toString(types));
+	}
+
+	private ConcurrentSkipListMap<String, StoredObject> bucket(String bucketName) {
+		ConcurrentSkipListMap<String, StoredObject> bucket = buckets.get(bucketName);
+		if (bucket == null) {
+			throw error(404, "NoSuchBucket", "The specified bucket does not exist");
+		}
+		return bucket;
+	}
+
+	private StoredObject object(String bucketName, String key) {
+		StoredObject object = bucket(bucketName).get(key);
+		if (object == null) {
+			throw error(404, "NoSuchKey", "The specified key does not exist");
+		}
+		return object;
+	}
+
+	private ObjectListing list(String bucketName, String prefix, String marker, String delimiter, Integer maxKeys) {
+		ConcurrentSkipListMap<String, StoredObject> bucket = bucket(bucketName);
+		String start = prefix == null ? "" : prefix;
+		int max = maxKeys == null ? pageSize : Math.min(maxKeys, pageSize);
+		ObjectListing listing = new ObjectListing();
+		listing.setBucketName(bucketName);
+		listing.setPrefix(prefix);
+		listing.setMarker(marker);
+		listing.setDelimiter(delimiter);
+		listing.setMaxKeys(max);
+		String key = marker != null && marker.compareTo(start) >= 0 ? bucket.higherKey(marker) : bucket.ceilingKey(start);
+		int count = 0;
+		String last = null;
+		while (key != null && key.startsWith(start)) {
+			if (count == max) {
+				listing.setTruncated(true);
+				listing.setNextMarker(last);
+				break;
+			}
+			int split = delimiter == null || delimiter.isEmpty() ? -1 : key.indexOf(delimiter, start.length());
+			if (split >= 0) {
+				String commonPrefix = key.substring(0, split + delimiter.length());
+				// a common prefix up to the marker was returned by an earlier page
+				if (marker == null || commonPrefix.compareTo(marker) > 0) {
+					listing.getCommonPrefixes().add(commonPrefix);
+					count++;
+					last = commonPrefix;
+				}
+				// skip past every key under the common prefix
+				char end = commonPrefix.charAt(commonPrefix.length() - 1);
+				key = bucket.ceilingKey(commonPrefix.substring(0, commonPrefix.length() - 1) + (char) (end + 1));
+			} else {
+				StoredObject object = bucket.get(key);
+				S3ObjectSummary summary = new S3ObjectSummary();
+				summary.setBucketName(bucketName);
+				summary.setKey(key);
+				summary.setSize(object.size);
+				summary.setLastModified(new Date(object.lastModified));
+				listing.getObjectSummaries().add(summary);
+				count++;
+				last = key;
+				key = bucket.higherKey(key);
+			}
+		}
+		return listing;
+	}
+
+	private ObjectMetadata metadata(String bucketName, String key) {
+		StoredObject object = object(bucketName, key);
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(object.size);
+		metadata.setLastModified(new Date(object.lastModified));
+		return metadata;
+	}
+
+	private S3Object get(String bucketName, String key) {
+		StoredObject object = object(bucketName, key);
+		S3Object s3Object = new S3Object();
+		s3Object.setBucketName(bucketName);
+		s3Object.setKey(key);
+		// the metadata setter is missing from older SDKs, but the object's own metadata can be filled in
+		s3Object.getObjectMetadata().setContentLength(object.size);
+		s3Object.getObjectMetadata().setLastModified(new Date(object.lastModified));
+		byte[] content = object.content != null ? object.content : new byte[(int) object.size];
+		s3Object.setObjectContent(new ByteArrayInputStream(content));
+		return s3Object;
+	}
+
+	private static AmazonServiceException error(int statusCode, String errorCode, String message) {
+		AmazonServiceException e = new AmazonServiceException(message);
+		e.setStatusCode(statusCode);
+		e.setErrorCode(errorCode);
+		e.setServiceName("Amazon S3");
+		return e;
+	}
+}
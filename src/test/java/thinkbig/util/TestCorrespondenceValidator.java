@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class TestCorrespondenceValidator extends TestCase {
+
+	private static final List<String> INPUTS = Arrays.asList("input/2011/11/02/in/in2/tfidf1",
+			"input/2011/11/02/in/tfidf1", "input/2011/11/02/tfidf1", "input/2011/11/02/tfidf2",
+			"input/2011/11/03/input");
+	private static final List<String> OUTPUTS = Arrays.asList("output/2011/11/02/in/in2/part-00000",
+			"output/2011/11/02/in/part-00000", "output/2011/11/02/part-00000", "output/2011/11/02/part-00001",
+			"output/2011/11/03/part-00000");
+
+	/**
+	 * Test that the order of the listings doesn't matter
+	 */
+	@Test
+	public void testAnyOrder() throws Exception {
+		List<String> shuffled = new ArrayList<String>(OUTPUTS);
+		Collections.reverse(shuffled);
+		assertTrue(Util.validateInputOutput1_1Correspondence("input", "output", INPUTS, shuffled));
+		CorrespondenceValidator.Report report = new CorrespondenceValidator("input", "output")
+			.setMaxDirectoriesInMemory(1).validate(INPUTS.iterator(), shuffled.iterator());
+		assertTrue(report.isValid());
+		assertEquals(5, report.getInputs());
+		assertEquals(5, report.getOutputs());
+	}
+
+	/**
+	 * Test the report of missing and orphan outputs, in memory, spilled and merged
+	 */
+	@Test
+	public void testMismatches() throws Exception {
+		List<String> outputs = new ArrayList<String>(OUTPUTS.subList(0, 3));
+		outputs.add("output/2011/11/04/part-00000");
+		CorrespondenceValidator validator = new CorrespondenceValidator("input", "output");
+		CorrespondenceValidator.Report[] reports = {
+				validator.validate(INPUTS.iterator(), outputs.iterator()),
+				validator.setMaxDirectoriesInMemory(1).validate(INPUTS.iterator(), outputs.iterator()),
+				validator.validateSorted(INPUTS.iterator(), outputs.iterator()) };
+		for (CorrespondenceValidator.Report report : reports) {
+			assertFalse(report.isValid());
+			assertEquals(2, report.getMissingOutputs());
+			assertEquals(1, report.getOrphanOutputs());
+			assertEquals(3, report.getMismatchedDirectoryCount());
+			assertEquals(Arrays.asList("/2011/11/02", "/2011/11/03", "/2011/11/04"),
+					new ArrayList<String>(report.getMismatchedDirectories().keySet()));
+			assertEquals(1, report.getMismatchedDirectories().get("/2011/11/02")[1]);
+		}
+		assertFalse(Util.validateInputOutput1_1Correspondence("input", "output", INPUTS, outputs));
+	}
+
+	/**
+	 * Test that files outside the input and output folders are reported
+	 */
+	@Test
+	public void testInvalidFiles() throws Exception {
+		CorrespondenceValidator.Report report = new CorrespondenceValidator("input", "output").validate(
+				Arrays.asList("input/a/f", "inputs/a/f", "f").iterator(), Arrays.asList("output/a/g").iterator());
+		assertFalse(report.isValid());
+		assertEquals(2, report.getInvalidInputs());
+		assertEquals(Arrays.asList("inputs/a/f", "f"), report.getInvalidFiles());
+		assertEquals(0, report.getMismatchedDirectoryCount());
+	}
+}
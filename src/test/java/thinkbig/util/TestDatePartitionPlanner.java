@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class TestDatePartitionPlanner extends TestCase {
+
+	/**
+	 * Test that only the partitions in the range are generated, across a month end
+	 */
+	@Test
+	public void testDailyPartitions() throws Exception {
+		assertEquals(Arrays.asList("input/2011/08/30/", "input/2011/08/31/", "input/2011/09/01/"),
+				new DatePartitionPlanner("input/{yyyy/MM/dd}/").getPartitions("2011-08-30", "2011-09-01", "yyyy-MM-dd"));
+		assertTrue(new DatePartitionPlanner("input/{yyyy/MM/dd}/")
+				.getPartitions("2011-09-01", "2011-08-30", "yyyy-MM-dd").isEmpty());
+	}
+
+	/**
+	 * Test that coarser and finer patterns get one partition per month and per hour
+	 */
+	@Test
+	public void testGranularity() throws Exception {
+		assertEquals(Arrays.asList("s3n://bucket/logs/dt=2011-07/", "s3n://bucket/logs/dt=2011-08/"),
+				new DatePartitionPlanner("s3n://bucket/logs/dt={yyyy-MM}/")
+					.getPartitions("2011-07-15", "2011-08-01", "yyyy-MM-dd"));
+		assertEquals(Arrays.asList("logs/2011/07/15/23", "logs/2011/07/16/00", "logs/2011/07/16/01"),
+				new DatePartitionPlanner("logs/{yyyy/MM/dd/HH}")
+					.getPartitions("2011-07-15 23:30", "2011-07-16 01:10", "yyyy-MM-dd HH:mm"));
+	}
+
+	/**
+	 * Test that a template needs a date pattern
+	 */
+	@Test
+	public void testBadTemplate() {
+		try {
+			new DatePartitionPlanner("input/2011/");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
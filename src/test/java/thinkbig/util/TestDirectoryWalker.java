@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+public class TestDirectoryWalker extends TestCase {
+	private FileSystem fs;
+	private Path root;
+
+	@Override
+	protected void setUp() throws IOException {
+		fs = FileSystem.getLocal(new Configuration());
+		root = new Path(new File(System.getProperty("java.io.tmpdir"), "TestDirectoryWalker-" + System.nanoTime())
+				.getAbsolutePath());
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		fs.delete(root, true);
+	}
+
+	private void write(String name, int size) throws IOException {
+		FSDataOutputStream out = fs.create(new Path(root, name));
+		out.write(new byte[size]);
+		out.close();
+	}
+
+	/**
+	 * a tree of 10 directories of 5 files each, nested 3 deep, plus an empty directory
+	 * @return the names of the files, relative to the root, sorted
+	 */
+	private List<String> tree() throws IOException {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 10; i++) {
+			String dir = i % 3 == 0 ? "d" + i : "d" + (i - i % 3) + "/s" + i + (i % 3 == 2 ? "/t" : "");
+			for (int j = 0; j < 5; j++) {
+				String name = dir + "/f" + j + (j % 2 == 0 ? ".txt" : ".gz");
+				write(name, j * 100);
+				names.add(name);
+			}
+		}
+		write("top.txt", 1);
+		names.add("top.txt");
+		fs.mkdirs(new Path(root, "empty"));
+		Collections.sort(names);
+		return names;
+	}
+
+	// paths relative to the root
+	private List<String> relative(List<String> paths) {
+		String prefix = root.toUri().getPath() + "/";
+		List<String> names = new ArrayList<String>();
+		for (String path : paths) {
+			String name = new Path(path).toUri().getPath();
+			assertTrue(name, name.startsWith(prefix));
+			names.add(name.substring(prefix.length()));
+		}
+		return names;
+	}
+
+	private static List<String> select(List<String> names, String suffix) {
+		List<String> selected = new ArrayList<String>();
+		for (String name : names) {
+			if (name.endsWith(suffix)) {
+				selected.add(name);
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Test that a concurrent walk finds every file once, in sorted order, whatever the number of threads
+	 */
+	@Test
+	public void testList() throws IOException {
+		List<String> names = tree();
+		for (int threads : new int[] { 1, 4, 16 }) {
+			assertEquals(names, relative(new DirectoryWalker(fs, threads).list(root)));
+		}
+	}
+
+	/**
+	 * Test filtering files by name glob and size
+	 */
+	@Test
+	public void testFilters() throws IOException {
+		List<String> names = tree();
+		assertEquals(select(names, ".txt"), relative(new DirectoryWalker(fs, 4).setNameGlob("*.txt").list(root)));
+		List<String> sized = new ArrayList<String>();
+		for (String name : names) {
+			if (name.endsWith("f1.gz") || name.endsWith("f2.txt")) {
+				sized.add(name);
+			}
+		}
+		assertEquals(sized, relative(new DirectoryWalker(fs, 4).setSizeRange(100, 200).list(root)));
+	}
+
+	/**
+	 * Test that overlapping roots report each file once, visiting one file at a time
+	 */
+	@Test
+	public void testOverlappingRoots() throws IOException {
+		List<String> names = tree();
+		final List<String> visited = new ArrayList<String>();
+		final int[] visiting = new int[1];
+		new DirectoryWalker(fs, 8).walk(Arrays.asList(root, new Path(root, "d0"), new Path(root, "d3/s4")),
+				new DirectoryWalker.Visitor() {
+					@Override
+					public void visit(FileStatus file) {
+						assertEquals(1, ++visiting[0]);
+						visited.add(file.getPath().toString());
+						visiting[0]--;
+					}
+				});
+		Collections.sort(visited);
+		assertEquals(names, relative(visited));
+	}
+
+	/**
+	 * Test that Util.getAllFiles appends the files it finds in sorted order, skipping those already listed
+	 */
+	@Test
+	public void testGetAllFiles() throws IOException {
+		List<String> names = tree();
+		List<String> files = new ArrayList<String>();
+		files.add("first");
+		Util.getAllFiles(fs, new Path(root, "d0").toString(), files, 4);
+		int found = files.size() - 1;
+		assertEquals(select(names, "").subList(0, found), relative(files.subList(1, files.size())));
+		Util.getAllFiles(fs, root.toString(), files, 4);
+		assertEquals("first", files.get(0));
+		assertEquals(names.size() + 1, files.size());
+		List<String> added = relative(files.subList(found + 1, files.size()));
+		List<String> sorted = new ArrayList<String>(added);
+		Collections.sort(sorted);
+		assertEquals(sorted, added);
+	}
+
+	/**
+	 * Test walking empty and missing directories
+	 */
+	@Test
+	public void testEmpty() throws IOException {
+		fs.mkdirs(new Path(root, "a/b"));
+		assertTrue(new DirectoryWalker(fs, 4).list(root).isEmpty());
+		assertTrue(new DirectoryWalker(fs, 4).list(new Path(root, "missing")).isEmpty());
+	}
+
+	/**
+	 * Test that a failing visitor stops the walk with its exception
+	 */
+	@Test
+	public void testVisitorFailure() throws IOException {
+		tree();
+		try {
+			new DirectoryWalker(fs, 4).walk(root, new DirectoryWalker.Visitor() {
+				@Override
+				public void visit(FileStatus file) throws IOException {
+					throw new IOException("visitor failed on " + file.getPath());
+				}
+			});
+			fail("the visitor's failure wasn't reported");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("visitor failed"));
+		}
+	}
+
+	private static boolean matches(String glob, String name) {
+		return Pattern.matches(DirectoryWalker.globToRegex(glob), name);
+	}
+
+	/**
+	 * Test the conversion of file name globs to regular expressions
+	 */
+	@Test
+	public void testGlobToRegex() {
+		assertTrue(matches("*.txt", "tfidf1.txt"));
+		assertFalse(matches("*.txt", "tfidf1.txt.gz"));
+		assertTrue(matches("part-?????", "part-00001"));
+		assertTrue(matches("*.{gz,bz2}", "a.bz2"));
+		assertFalse(matches("*.{gz,bz2}", "a.txt"));
+		assertTrue(matches("[a-c]*", "b.txt"));
+		assertFalse(matches("[!a-c]*", "b.txt"));
+		assertTrue(matches("a+b(1).txt", "a+b(1).txt"));
+		assertTrue(matches("\\*", "*"));
+		assertFalse(matches("\\*", "x"));
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+
+public class TestS3ClientRegistry extends TestCase {
+
+	/**
+	 * A client whose calls fail with the given status and error code a number of times before succeeding
+	 */
+	private static class FailingS3 implements InvocationHandler {
+		private final int statusCode;
+		private final String errorCode;
+		private int failures;
+		int attempts = 0;
+
+		FailingS3(int failures, int statusCode, String errorCode) {
+			this.failures = failures;
+			this.statusCode = statusCode;
+			this.errorCode = errorCode;
+		}
+
+		AmazonS3 client() {
+			return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(),
+					new Class<?>[] { AmazonS3.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			attempts++;
+			if (failures-- > 0) {
+				AmazonServiceException e = new AmazonServiceException("injected failure");
+				e.setStatusCode(statusCode);
+				e.setErrorCode(errorCode);
+				throw e;
+			}
+			return method.getName().equals("doesBucketExist") ? Boolean.TRUE : null;
+		}
+	}
+
+	private static S3ClientRegistry.Settings retries(int maxRetries) {
+		return new S3ClientRegistry.Settings().setRetries(maxRetries, 1, 4);
+	}
+
+	/**
+	 * Test that retriable failures are retried until the call succeeds, and counted
+	 */
+	@Test
+	public void testRetry() {
+		FailingS3 stub = new FailingS3(2, 503, "SlowDown");
+		S3ClientRegistry.Stats stats = new S3ClientRegistry.Stats();
+		AmazonS3 s3 = S3ClientRegistry.retrying(stub.client(), retries(3), stats);
+		assertTrue(s3.doesBucketExist("bucket"));
+		assertEquals(3, stub.attempts);
+		assertEquals(1, stats.getRequests());
+		assertEquals(2, stats.getRetries());
+		assertEquals(0, stats.getFailures());
+	}
+
+	/**
+	 * Test that a call gives up after the maximum number of retries with the last failure
+	 */
+	@Test
+	public void testGiveUp() {
+		FailingS3 stub = new FailingS3(Integer.MAX_VALUE, 500, "InternalError");
+		S3ClientRegistry.Stats stats = new S3ClientRegistry.Stats();
+		AmazonS3 s3 = S3ClientRegistry.retrying(stub.client(), retries(3), stats);
+		try {
+			s3.doesBucketExist("bucket");
+			fail("the call should have failed");
+		} catch (AmazonServiceException e) {
+			assertEquals(500, e.getStatusCode());
+		}
+		assertEquals(4, stub.attempts);
+		assertEquals(1, stats.getRequests());
+		assertEquals(3, stats.getRetries());
+		assertEquals(1, stats.getFailures());
+	}
+
+	/**
+	 * Test that client errors and uploads of streams aren't retried
+	 */
+	@Test
+	public void testNotRetried() {
+		FailingS3 stub = new FailingS3(1, 403, "AccessDenied");
+		S3ClientRegistry.Stats stats = new S3ClientRegistry.Stats();
+		AmazonS3 s3 = S3ClientRegistry.retrying(stub.client(), retries(3), stats);
+		try {
+			s3.doesBucketExist("bucket");
+			fail("the call should have failed");
+		} catch (AmazonServiceException e) {
+			assertEquals(403, e.getStatusCode());
+		}
+		assertEquals(1, stub.attempts);
+
+		stub = new FailingS3(1, 503, "SlowDown");
+		s3 = S3ClientRegistry.retrying(stub.client(), retries(3), stats);
+		try {
+			s3.putObject(new PutObjectRequest("bucket", "key", new ByteArrayInputStream(new byte[1]),
+					new ObjectMetadata()));
+			fail("the upload should have failed");
+		} catch (AmazonServiceException e) {
+			assertEquals(503, e.getStatusCode());
+		}
+		assertEquals(1, stub.attempts);
+		assertEquals(2, stats.getRequests());
+		assertEquals(0, stats.getRetries());
+		assertEquals(2, stats.getFailures());
+	}
+
+	/**
+	 * Test that interrupting a retrying call fails it with a client exception, keeping the interrupt
+	 */
+	@Test
+	public void testInterrupted() {
+		FailingS3 stub = new FailingS3(Integer.MAX_VALUE, 503, "SlowDown");
+		S3ClientRegistry.Stats stats = new S3ClientRegistry.Stats();
+		AmazonS3 s3 = S3ClientRegistry.retrying(stub.client(), new S3ClientRegistry.Settings().setRetries(3, 10000,
+				10000), stats);
+		Thread.currentThread().interrupt();
+		try {
+			s3.doesBucketExist("bucket");
+			fail("the call should have been interrupted");
+		} catch (AmazonClientException e) {
+			assertFalse(e instanceof AmazonServiceException);
+			assertTrue(e.getCause() instanceof InterruptedException);
+			assertTrue(Thread.interrupted());
+		}
+		assertEquals(1, stub.attempts);
+		assertEquals(1, stats.getFailures());
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class TestS3Helpers extends TestCase {
+
+	private static InMemoryS3 store(int nKeys) {
+		InMemoryS3 store = new InMemoryS3().createBucket("empty");
+		for (int i = 0; i < nKeys; i++) {
+			store.putObject("bucket", String.format("input/%02d/part-%05d", i % 10, i), i % 7 == 0 ? 0 : 100);
+		}
+		store.putObject("bucket", "other/file", "contents".getBytes());
+		return store;
+	}
+
+	/**
+	 * Test that listings follow every page, with one request per page
+	 */
+	@Test
+	public void testGetAllObjectKeysInBucket() {
+		InMemoryS3 store = store(2500);
+		List<String> keys = Util.getAllObjectKeysInBucket(store.getClient(), "bucket");
+		assertEquals(2501, keys.size());
+		assertEquals("input/00/part-00000", keys.get(0));
+		assertEquals("other/file", keys.get(2500));
+		assertEquals(3, store.getCalls("listObjects") + store.getCalls("listNextBatchOfObjects"));
+		assertEquals(1, store.getCalls("doesBucketExist"));
+
+		int blanks = 0;
+		for (int i = 0; i < 2500; i++) {
+			blanks += i % 7 == 0 ? 1 : 0;
+		}
+		assertEquals(2501 - blanks, Util.getAllObjectKeysInBucket(store.getClient(), "bucket", true).size());
+		assertNull(Util.getAllObjectKeysInBucket(store.getClient(), "missing"));
+		assertEquals(0, Util.getAllObjectKeysInBucket(store.getClient(), "empty").size());
+	}
+
+	/**
+	 * Test that only the folder is listed
+	 */
+	@Test
+	public void testGetAllObjectsInfolder() {
+		InMemoryS3 store = store(2500);
+		List<String> keys = Util.getAllObjectsInfolder(store.getClient(), "bucket", "input/03/");
+		assertEquals(250, keys.size());
+		for (String key : keys) {
+			assertTrue(key, key.startsWith("input/03/"));
+		}
+		assertEquals(1, store.getCalls("listObjects") + store.getCalls("listNextBatchOfObjects"));
+	}
+
+	/**
+	 * Test listing one level with a delimiter, across pages
+	 */
+	@Test
+	public void testDelimiter() {
+		InMemoryS3 store = store(100).setPageSize(4);
+		AmazonS3 s3 = store.getClient();
+		List<String> prefixes = new ArrayList<String>();
+		List<String> keys = new ArrayList<String>();
+		ObjectListing page = s3.listObjects(new ListObjectsRequest().withBucketName("bucket").withDelimiter("/"));
+		for (;;) {
+			prefixes.addAll(page.getCommonPrefixes());
+			for (S3ObjectSummary summary : page.getObjectSummaries()) {
+				keys.add(summary.getKey());
+			}
+			if (!page.isTruncated()) {
+				break;
+			}
+			page = s3.listNextBatchOfObjects(page);
+		}
+		assertEquals(Arrays.asList("input/", "other/"), prefixes);
+		assertTrue(keys.isEmpty());
+
+		prefixes.clear();
+		store.resetCalls();
+		page = s3.listObjects(new ListObjectsRequest().withBucketName("bucket").withPrefix("input/").withDelimiter("/"));
+		for (;;) {
+			prefixes.addAll(page.getCommonPrefixes());
+			if (!page.isTruncated()) {
+				break;
+			}
+			page = s3.listNextBatchOfObjects(page);
+		}
+		assertEquals(10, prefixes.size());
+		assertEquals("input/09/", prefixes.get(9));
+		assertEquals(3, store.getCalls("listObjects") + store.getCalls("listNextBatchOfObjects"));
+	}
+
+	/**
+	 * Test existence checks, by HEAD requests for a few keys and by listing for many
+	 */
+	@Test
+	public void testCheckIfAllObjectsExist() {
+		InMemoryS3 store = store(2500);
+		AmazonS3 s3 = store.getClient();
+		assertTrue(Util.checkIfAllObjectsExist(s3, "bucket", Arrays.asList("input/00/part-00000", "other/file")));
+		assertEquals(2, store.getCalls("getObjectMetadata"));
+		assertFalse(Util.checkIfAllObjectsExist(s3, "bucket", Arrays.asList("input/00/part-00000", "input/none")));
+		assertFalse(Util.checkIfAllObjectsExist(s3, "missing", Arrays.asList("input/00/part-00000")));
+
+		store.resetCalls();
+		List<String> many = new ArrayList<String>();
+		for (int i = 0; i < 2000; i++) {
+			many.add(String.format("input/%02d/part-%05d", i % 10, i));
+		}
+		assertTrue(Util.checkIfAllObjectsExist(s3, "bucket", many));
+		assertEquals(0, store.getCalls("getObjectMetadata"));
+		assertEquals(3, store.getCalls("listObjects") + store.getCalls("listNextBatchOfObjects"));
+	}
+
+	@Test
+	public void testCheckIfUrisExist() {
+		InMemoryS3 store = store(10);
+		AmazonS3 s3 = store.getClient();
+		assertTrue(Util.checkIfUrisExist(s3,
+				Arrays.asList("s3://bucket//input/00/part-00000", "s3n://bucket//other/file")));
+		assertFalse(Util.checkIfUrisExist(s3, Arrays.asList("s3://bucket//other/file", "s3://missing//other/file")));
+		assertFalse(Util.checkIfUrisExist(s3, Arrays.asList("not a uri")));
+	}
+
+	/**
+	 * Test that injected failures surface as S3 service errors
+	 */
+	@Test
+	public void testErrorInjection() {
+		InMemoryS3 store = store(10).setErrorRate(1, 0);
+		try {
+			Util.getAllObjectKeysInBucket(store.getClient(), "bucket");
+			fail("Expected an injected failure");
+		} catch (AmazonServiceException e) {
+			assertEquals(503, e.getStatusCode());
+			assertEquals("SlowDown", e.getErrorCode());
+		}
+	}
+}
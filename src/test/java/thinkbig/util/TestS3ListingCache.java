@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class TestS3ListingCache extends TestCase {
+	private static final long HOUR = 60 * 60 * 1000;
+
+	private File dir;
+
+	@Override
+	protected void setUp() {
+		dir = new File(System.getProperty("java.io.tmpdir"), "TestS3ListingCache-" + System.nanoTime());
+	}
+
+	@Override
+	protected void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static void assertListingsEqual(S3ListingCache.Listing expected, S3ListingCache.Listing actual) {
+		assertEquals(expected.getKeys(), actual.getKeys());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getSize(i), actual.getSize(i));
+			assertEquals(expected.getLastModified(i), actual.getLastModified(i));
+		}
+	}
+
+	private static S3ListingCache.Listing fullListing(InMemoryS3 store, String prefix) {
+		return new S3ListingCache(HOUR, Long.MAX_VALUE, null).get(store.getClient(), "bucket", prefix);
+	}
+
+	/**
+	 * Test that an incremental refresh sees additions and deletions under the prefixes it lists level by level just
+	 * as a full listing does, while leaving older sub-folders alone
+	 */
+	@Test
+	public void testRefresh() {
+		InMemoryS3 store = new InMemoryS3();
+		for (String key : new String[] { "logs/top.txt", "logs/2013/12/31/a", "logs/2014/01/01/a", "logs/2014/01/01/b",
+				"logs/2014/01/02/a", "logs/2014/02/01/a", "other/a" }) {
+			store.putObject("bucket", key, key.length());
+		}
+		// always expired, so every get refreshes
+		S3ListingCache cache = new S3ListingCache(0, Long.MAX_VALUE, null).setRefreshDepth(3);
+		assertEquals(6, cache.get(store.getClient(), "bucket", "logs/").size());
+
+		store.putObject("bucket", "logs/new.txt", 1);
+		store.deleteObject("bucket", "logs/top.txt");
+		store.deleteObject("bucket", "logs/2013/12/31/a");
+		store.putObject("bucket", "logs/2014/02/01/b", 2);
+		store.putObject("bucket", "logs/2014/02/01/a", 3);
+		store.putObject("bucket", "logs/2014/02/02/a", 4);
+		store.putObject("bucket", "logs/2014/03/01/a", 5);
+		store.putObject("bucket", "logs/2015/01/01/a", 6);
+		S3ListingCache.Listing refreshed = cache.get(store.getClient(), "bucket", "logs/");
+		assertListingsEqual(fullListing(store, "logs/"), refreshed);
+		assertEquals(3, refreshed.getSize(refreshed.getKeys().indexOf("logs/2014/02/01/a")));
+
+		// older sub-folders are assumed unchanged
+		store.putObject("bucket", "logs/2014/01/01/c", 7);
+		refreshed = cache.get(store.getClient(), "bucket", "logs/");
+		assertFalse(refreshed.contains("logs/2014/01/01/c"));
+		assertEquals(fullListing(store, "logs/").size() - 1, refreshed.size());
+	}
+
+	/**
+	 * Test that a listing saved as a snapshot is loaded as it was by a later cache, and that an unreadable snapshot
+	 * is listed again
+	 */
+	@Test
+	public void testSnapshot() throws IOException {
+		InMemoryS3 store = new InMemoryS3();
+		for (int i = 0; i < 2500; i++) {
+			store.putObject("bucket", String.format("in/%02d/part-%05d", i % 13, i), i);
+		}
+		store.putObject("bucket", "in/\u00e9t\u00e9", 1);
+		S3ListingCache.Listing listing = new S3ListingCache(HOUR, Long.MAX_VALUE, dir).get(store.getClient(), "bucket",
+				"in/");
+		File[] snapshots = dir.listFiles();
+		assertEquals(1, snapshots.length);
+
+		InMemoryS3 empty = new InMemoryS3();
+		S3ListingCache.Listing loaded = new S3ListingCache(HOUR, Long.MAX_VALUE, dir).get(empty.getClient(), "bucket",
+				"in/");
+		assertEquals(0, empty.getTotalCalls());
+		assertEquals(2501, loaded.size());
+		assertEquals(listing.getListedAt(), loaded.getListedAt());
+		assertListingsEqual(listing, loaded);
+
+		// the loaded snapshot is kept in memory
+		S3ListingCache cache = new S3ListingCache(HOUR, Long.MAX_VALUE, dir);
+		cache.get(empty.getClient(), "bucket", "in/");
+		assertTrue(snapshots[0].delete());
+		assertListingsEqual(listing, cache.get(empty.getClient(), "bucket", "in/"));
+		assertEquals(0, empty.getTotalCalls());
+
+		FileOutputStream out = new FileOutputStream(snapshots[0]);
+		out.write("not a snapshot".getBytes());
+		out.close();
+		store.resetCalls();
+		S3ListingCache.Listing relisted = new S3ListingCache(HOUR, Long.MAX_VALUE, dir).get(store.getClient(),
+				"bucket", "in/");
+		assertListingsEqual(listing, relisted);
+		assertTrue(store.getTotalCalls() > 0);
+	}
+
+	/**
+	 * Test that keys outside the basic multilingual plane, sharing the first half of a surrogate pair, survive a
+	 * snapshot round trip
+	 */
+	@Test
+	public void testSnapshotSupplementaryKeys() {
+		InMemoryS3 store = new InMemoryS3();
+		for (String key : new String[] { "in/\uD83D\uDE00", "in/\uD83D\uDE01/a", "in/\uD83D\uDE01/b",
+				"in/\uD834\uDD1E" }) {
+			store.putObject("bucket", key, key.length());
+		}
+		S3ListingCache.Listing listing = new S3ListingCache(HOUR, Long.MAX_VALUE, dir).get(store.getClient(), "bucket",
+				"in/");
+		InMemoryS3 empty = new InMemoryS3();
+		S3ListingCache.Listing loaded = new S3ListingCache(HOUR, Long.MAX_VALUE, dir).get(empty.getClient(), "bucket",
+				"in/");
+		assertEquals(0, empty.getTotalCalls());
+		assertEquals(4, loaded.size());
+		assertListingsEqual(listing, loaded);
+	}
+
+	/**
+	 * Test that listings of different prefixes go ahead at the same time
+	 */
+	@Test
+	public void testConcurrentPrefixes() throws InterruptedException {
+		final InMemoryS3 store = new InMemoryS3().setLatency(300);
+		store.putObject("bucket", "a/1", 1).putObject("bucket", "b/1", 1);
+		final S3ListingCache cache = new S3ListingCache(HOUR, Long.MAX_VALUE, null);
+		Thread[] threads = new Thread[2];
+		for (int i = 0; i < threads.length; i++) {
+			final String prefix = i == 0 ? "a/" : "b/";
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					cache.get(store.getClient(), "bucket", prefix);
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(2, store.getMaxConcurrentCalls());
+		store.resetCalls();
+		assertEquals(1, cache.get(store.getClient(), "bucket", "b/").size());
+		assertEquals(0, store.getTotalCalls());
+	}
+
+	/**
+	 * Test that listings are used until they expire
+	 */
+	@Test
+	public void testExpiry() throws InterruptedException {
+		InMemoryS3 store = new InMemoryS3().putObject("bucket", "a/1", 1);
+		S3ListingCache cache = new S3ListingCache(200, Long.MAX_VALUE, null);
+		assertEquals(1, cache.get(store.getClient(), "bucket", "a/").size());
+		store.putObject("bucket", "a/2", 1);
+		store.resetCalls();
+		assertEquals(1, cache.get(store.getClient(), "bucket", "a/").size());
+		assertEquals(0, store.getTotalCalls());
+		Thread.sleep(300);
+		assertEquals(2, cache.get(store.getClient(), "bucket", "a/").size());
+		assertEquals(1, store.getTotalCalls());
+	}
+
+	/**
+	 * Test that the least recently used listings are dropped to stay under the maximum number of keys, and that
+	 * a fresh listing of an enclosing prefix serves the prefixes under it
+	 */
+	@Test
+	public void testEviction() {
+		InMemoryS3 store = new InMemoryS3();
+		for (String folder : new String[] { "a", "b", "c" }) {
+			for (int i = 0; i < 5; i++) {
+				store.putObject("bucket", folder + "/" + i, 1);
+			}
+		}
+		S3ListingCache cache = new S3ListingCache(HOUR, 10, null);
+		cache.get(store.getClient(), "bucket", "a/");
+		cache.get(store.getClient(), "bucket", "b/");
+		cache.get(store.getClient(), "bucket", "a/");
+		store.resetCalls();
+		// 15 keys: b/ is the least recently used
+		cache.get(store.getClient(), "bucket", "c/");
+		assertEquals(1, store.getTotalCalls());
+		cache.get(store.getClient(), "bucket", "a/");
+		assertEquals(1, store.getTotalCalls());
+		cache.get(store.getClient(), "bucket", "b/");
+		assertEquals(2, store.getTotalCalls());
+
+		cache = new S3ListingCache(HOUR, 100, null);
+		assertEquals(15, cache.get(store.getClient(), "bucket", "").size());
+		store.resetCalls();
+		S3ListingCache.Listing sub = cache.get(store.getClient(), "bucket", "b/");
+		assertEquals(0, store.getTotalCalls());
+		assertEquals(5, sub.size());
+		assertEquals("b/0", sub.getKey(0));
+	}
+}
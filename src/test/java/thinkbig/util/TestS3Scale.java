@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2010-2014 Think Big Analytics, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. See accompanying LICENSE file.
+ */
+package thinkbig.util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Scale harness for the S3 helpers of Util, over an InMemoryS3 bucket. For each bucket size it runs every helper and
+ * reports its S3 requests, wall time and the heap retained by its result, and checks the request counts, so a change
+ * that makes a helper issue more requests fails here rather than in production.
+ *
+ * Runs with 20000 keys by default; set -Dthinkbig.s3.scale.keys to a comma separated list of sizes (e.g.
+ * 10000,100000,1000000, which needs a heap of about 1GB) and -Dthinkbig.s3.scale.latency to a latency per request in
+ * milliseconds to measure at production scale.
+ *
+ */
+public class TestS3Scale extends TestCase {
+	private static final int FOLDERS = 100;
+
+	private static String key(int i) {
+		return String.format("input/%03d/part-%08d", i % FOLDERS, i);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static abstract class Helper {
+		final String name;
+
+		Helper(String name) {
+			this.name = name;
+		}
+
+		abstract Object run();
+	}
+
+	/**
+	 * Run a helper with its per key output discarded
+	 * @return the requests, wall time in ms and retained heap in bytes of the run
+	 */
+	private static long[] measure(InMemoryS3 store, Helper helper) {
+		store.resetCalls();
+		PrintStream out = System.out;
+		long heap = usedHeap();
+		long start = System.currentTimeMillis();
+		Object result;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+		try {
+			result = helper.run();
+		} finally {
+			System.setOut(out);
+		}
+		long millis = System.currentTimeMillis() - start;
+		long retained = usedHeap() - heap;
+		assertNotNull(result);
+		System.out.println(String.format("%-28s %10d requests %8d ms %12d bytes retained", helper.name,
+				store.getTotalCalls(), millis, retained));
+		return new long[] { store.getTotalCalls(), millis, retained };
+	}
+
+	private static int pages(int n) {
+		return (n + InMemoryS3.DEFAULT_PAGE_SIZE - 1) / InMemoryS3.DEFAULT_PAGE_SIZE;
+	}
+
+	@Test
+	public void testScale() {
+		String sizes = System.getProperty("thinkbig.s3.scale.keys", "20000");
+		long latency = Long.getLong("thinkbig.s3.scale.latency", 0L);
+		for (String size : sizes.split(",")) {
+			final int n = Integer.parseInt(size.trim());
+			final InMemoryS3 store = new InMemoryS3();
+			for (int i = 0; i < n; i++) {
+				store.putObject("bucket", key(i), 1024);
+			}
+			store.setLatency(latency);
+			System.out.println("--- " + n + " keys in " + FOLDERS + " folders, " + latency + " ms per request");
+
+			// one existence check of the bucket, then one request per page
+			long[] all = measure(store, new Helper("getAllObjectKeysInBucket") {
+				@Override
+				Object run() {
+					List<String> keys = Util.getAllObjectKeysInBucket(store.getClient(), "bucket");
+					assertEquals(n, keys.size());
+					return keys;
+				}
+			});
+			assertEquals(1 + pages(n), all[0]);
+
+			long[] folder = measure(store, new Helper("getAllObjectsInfolder") {
+				@Override
+				Object run() {
+					List<String> keys = Util.getAllObjectsInfolder(store.getClient(), "bucket", "input/007/");
+					assertEquals(n / FOLDERS, keys.size());
+					return keys;
+				}
+			});
+			assertEquals(1 + Math.max(1, pages(n / FOLDERS)), folder[0]);
+
+			// many keys are checked by listing the prefix they share, a few by HEAD requests
+			final List<String> wanted = new ArrayList<String>();
+			for (int i = 0; i < n; i += 2) {
+				wanted.add(key(i));
+			}
+			long[] exist = measure(store, new Helper("checkIfAllObjectsExist") {
+				@Override
+				Object run() {
+					assertTrue(Util.checkIfAllObjectsExist(store.getClient(), "bucket", wanted));
+					return wanted;
+				}
+			});
+			assertTrue(exist[0] <= 1 + pages(n));
+
+			final List<String> uris = new ArrayList<String>();
+			for (int i = 0; i < Math.min(n, 500); i++) {
+				uris.add("s3://bucket//" + key(i));
+			}
+			long[] head = measure(store, new Helper("checkIfUrisExist (HEAD)") {
+				@Override
+				Object run() {
+					assertTrue(Util.checkIfUrisExist(store.getClient(), uris));
+					return uris;
+				}
+			});
+			assertEquals(1 + uris.size(), head[0]);
+			assertTrue(store.getMaxConcurrentCalls() <= S3ExistenceChecker.DEFAULT_MAX_CONCURRENCY);
+		}
+	}
+}
@@ -18,6 +18,7 @@ package thinkbig.util;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Locale;
+import java.util.TimeZone;
 
 import junit.framework.TestCase;
 import org.junit.Test;
@@ -65,5 +66,23 @@ public class TestUtil extends TestCase {
 		assertTrue(Util.addDays("2008-02-28", 0, "yyyy-MM-dd", "MM/yy/dd").equals("02/08/28"));
 		assertTrue(Util.addDays("2008-12-31", 1, "yyyy-MM-dd", "MM/yyyy/dd").equals("01/2009/01"));
 	}
-}
 
+	/**
+	 * Test that parsing a zoned date doesn't leave its time zone behind for later formats with the same pattern
+	 */
+	@Test
+	public void testZonedPattern() throws ParseException {
+		TimeZone zone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+		try {
+			assertEquals("2014-01-01 00:00", Util.convertDate("2014-01-01 09:00 JST", "yyyy-MM-dd HH:mm z",
+					"yyyy-MM-dd HH:mm"));
+			assertEquals("2014-01-01 00:00 UTC", Util.convertDate("2014-01-01 00:00", "yyyy-MM-dd HH:mm",
+					"yyyy-MM-dd HH:mm z"));
+			// quoted letters aren't a zone, so the formatter is still cached
+			assertSame(DateFormats.get("yyyy-MM-dd'Z'"), DateFormats.get("yyyy-MM-dd'Z'"));
+		} finally {
+			TimeZone.setDefault(zone);
+		}
+	}
+}